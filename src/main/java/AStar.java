@@ -0,0 +1,77 @@
+/**
+ * A* search over the dense vertex indices of a GraphDB. Edge lengths come from the
+ * precomputed weight array and the heuristic is the great-circle distance to the target,
+ * which never overestimates a road distance, so the first time the target is popped its
+ * distance is final. The queue is an indexed heap keyed by f = g + h, where h is computed
+ * once per vertex and cached in the search state; a vertex whose distance improves has its
+ * key decreased in place rather than being queued again. Apart from the returned path,
+ * a search allocates nothing: all of its state lives in a reusable SearchState.
+ *
+ * Under the travel time metric edges cost their precomputed travel time, and the
+ * great-circle distance is turned into a time at the highest speed in the graph.
+ * With landmark tables the heuristic is the larger of the great-circle distance and the
+ * ALT lower bound, which is still admissible and consistent but usually much tighter.
+ */
+class AStar {
+    private AStar() {
+    }
+
+    /**
+     * Run A* from s to t. On success the path can be read with state.path(g, t).
+     * @param g The graph to search.
+     * @param state Search state for g, reset by this call.
+     * @param s The dense index of the start vertex.
+     * @param t The dense index of the target vertex.
+     * @return whether t is reachable from s.
+     */
+    static boolean search(GraphDB g, SearchState state, int s, int t) {
+        return search(g, state, s, t, Router.Metric.DISTANCE, null);
+    }
+
+    /**
+     * Run A* from s to t like search above under the given metric, optionally tightening
+     * the heuristic with landmark tables.
+     * @param metric What the path minimizes.
+     * @param landmarks Landmark tables for g under metric, or null to use the great-circle
+     *                  bound alone.
+     */
+    static boolean search(GraphDB g, SearchState state, int s, int t, Router.Metric metric,
+                          Landmarks landmarks) {
+        state.reset();
+        IndexedMinHeap heap = state.heap;
+        state.update(s, 0.0, -1);
+        heap.push(s, heuristic(g, metric, landmarks, state, s, t));
+
+        while (!heap.isEmpty()) {
+            int v = heap.pop();
+            state.settle(v);
+            if (v == t) {
+                return true;
+            }
+            double dv = state.dist(v);
+            for (int e = g.edgeStart(v); e < g.edgeEnd(v); e++) {
+                int w = g.edgeTarget(e);
+                double d = dv + g.edgeCost(e, metric);
+                if (d < state.dist(w)) {
+                    state.update(w, d, v);
+                    heap.push(w, d + heuristic(g, metric, landmarks, state, w, t));
+                }
+            }
+        }
+        return false;
+    }
+
+//    lower bound on the distance from v to t, computed once per vertex per search
+    private static double heuristic(GraphDB g, Router.Metric metric, Landmarks landmarks,
+                                    SearchState state, int v, int t) {
+        double h = state.estimate(v);
+        if (Double.isNaN(h)) {
+            h = g.estimateAt(v, t, metric);
+            if (landmarks != null) {
+                h = Math.max(h, landmarks.lowerBound(v, t));
+            }
+            state.setEstimate(v, h);
+        }
+        return h;
+    }
+}
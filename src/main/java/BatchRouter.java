@@ -0,0 +1,132 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Routes many origin/destination pairs at once on a work-stealing ForkJoinPool. The pairs are
+ * split in halves recursively down to small runs, so idle workers steal the remaining halves
+ * of busy ones and a few long routes do not leave the other cores waiting. Every query runs
+ * on the search state of the worker thread executing it, which GraphDB keeps per thread, so
+ * each worker allocates its search arrays once and reuses them for all of its pairs.
+ *
+ * Queries share nothing but the read-only graph and its preprocessing, so throughput grows
+ * with the number of workers until memory bandwidth runs out.
+ */
+public class BatchRouter {
+//    pairs a task routes itself instead of splitting further
+    private static final int SEQUENTIAL_PAIRS = 4;
+
+    private BatchRouter() {
+    }
+
+    /**
+     * Route every pair on the common ForkJoinPool.
+     * @see #route(GraphDB, double[][], Router.Algorithm, Router.Metric, boolean, ForkJoinPool)
+     */
+    static Result[] route(GraphDB g, double[][] pairs, Router.Algorithm algorithm,
+                          Router.Metric metric, boolean directions) {
+        return route(g, pairs, algorithm, metric, directions, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Route every pair on the given pool, each between the vertices closest to its ends.
+     * @param g The graph to use.
+     * @param pairs The queries as {start lon, start lat, end lon, end lat}.
+     * @param algorithm The search algorithm to use.
+     * @param metric What the paths minimize.
+     * @param directions Whether to compute the navigation directions of every route.
+     * @param pool The pool to run the queries on.
+     * @return the result of pairs[i] at index i.
+     */
+    static Result[] route(GraphDB g, double[][] pairs, Router.Algorithm algorithm,
+                          Router.Metric metric, boolean directions, ForkJoinPool pool) {
+        Result[] results = new Result[pairs.length];
+        pool.invoke(new RouteTask(g, pairs, algorithm, metric, directions, results,
+                0, pairs.length));
+        return results;
+    }
+
+    private static class RouteTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final GraphDB g;
+        private final double[][] pairs;
+        private final Router.Algorithm algorithm;
+        private final Router.Metric metric;
+        private final boolean directions;
+        private final Result[] results;
+        private final int from;
+        private final int to;
+
+        RouteTask(GraphDB g, double[][] pairs, Router.Algorithm algorithm, Router.Metric metric,
+                  boolean directions, Result[] results, int from, int to) {
+            this.g = g;
+            this.pairs = pairs;
+            this.algorithm = algorithm;
+            this.metric = metric;
+            this.directions = directions;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SEQUENTIAL_PAIRS) {
+                for (int i = from; i < to; i++) {
+                    results[i] = routeOne(pairs[i]);
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new RouteTask(g, pairs, algorithm, metric, directions, results, from, mid),
+                    new RouteTask(g, pairs, algorithm, metric, directions, results, mid, to));
+        }
+
+        private Result routeOne(double[] pair) {
+            List<Long> path = Router.shortestPath(g, pair[0], pair[1], pair[2], pair[3],
+                    algorithm, metric, null);
+            double distance = 0;
+            for (int i = 1; i < path.size(); i++) {
+                distance += g.distance(path.get(i - 1), path.get(i));
+            }
+            List<Router.NavigationDirection> steps = directions && path.size() >= 2
+                    ? Router.routeDirections(g, path) : new ArrayList<>();
+            return new Result(path, distance, steps);
+        }
+    }
+
+    /**
+     * The route of one pair: the OSM ids of its vertices, its length in miles and its
+     * directions, which are empty unless they were asked for or there is no route.
+     */
+    public static class Result {
+        private final List<Long> path;
+        private final double distance;
+        private final List<Router.NavigationDirection> directions;
+
+        Result(List<Long> path, double distance, List<Router.NavigationDirection> directions) {
+            this.path = Collections.unmodifiableList(path);
+            this.distance = distance;
+            this.directions = Collections.unmodifiableList(directions);
+        }
+
+        public boolean isFound() {
+            return !path.isEmpty();
+        }
+
+        public List<Long> getPath() {
+            return path;
+        }
+
+        public double getDistance() {
+            return distance;
+        }
+
+        public List<Router.NavigationDirection> getDirections() {
+            return directions;
+        }
+    }
+}
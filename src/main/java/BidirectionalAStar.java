@@ -0,0 +1,103 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bidirectional A* over the dense vertex indices of a GraphDB, searching forward from the
+ * start and backward from the target at the same time. Both directions use the average
+ * potential of Ikeda et al.: with h_s and h_t the great-circle distances to start and target,
+ * the forward search is keyed by d(v) + p(v) and the backward one by d(v) - p(v), where
+ * p(v) = (h_t(v) - h_s(v)) / 2. Both potentials are consistent and sum to zero, so the best
+ * path found so far, of length mu, is optimal as soon as the two smallest keys add up to
+ * at least mu.
+ *
+ * Road segments are stored in both directions with equal weights, so the backward search
+ * walks the same outgoing edges as the forward one.
+ */
+class BidirectionalAStar {
+    private BidirectionalAStar() {
+    }
+
+    /**
+     * Run bidirectional A* from s to t. Afterwards forward.settledCount() and
+     * backward.settledCount() tell how many vertices each direction settled.
+     * @param g The graph to search.
+     * @param forward Search state for the forward search, reset by this call.
+     * @param backward Search state for the backward search, reset by this call.
+     * @param s The dense index of the start vertex.
+     * @param t The dense index of the target vertex.
+     * @return the OSM ids of the vertices on a shortest path, or an empty list if t cannot
+     * be reached from s.
+     */
+    static List<Long> search(GraphDB g, SearchState forward, SearchState backward, int s, int t) {
+        return search(g, forward, backward, s, t, Router.Metric.DISTANCE);
+    }
+
+    /**
+     * Run bidirectional A* from s to t like search above under the given metric, with the
+     * potentials built from g.estimateAt(v, w, metric).
+     * @param metric What the path minimizes.
+     */
+    static List<Long> search(GraphDB g, SearchState forward, SearchState backward, int s, int t,
+                             Router.Metric metric) {
+        forward.reset();
+        backward.reset();
+        IndexedMinHeap forwardHeap = forward.heap;
+        IndexedMinHeap backwardHeap = backward.heap;
+        forward.update(s, 0.0, -1);
+        forwardHeap.push(s, potential(g, metric, forward, s, s, t, 1));
+        backward.update(t, 0.0, -1);
+        backwardHeap.push(t, potential(g, metric, backward, t, s, t, -1));
+
+        double best = s == t ? 0.0 : Double.POSITIVE_INFINITY;
+        int meetForward = s == t ? s : -1;
+        int meetBackward = s == t ? t : -1;
+
+        while (!forwardHeap.isEmpty() && !backwardHeap.isEmpty()) {
+            if (forwardHeap.peekKey() + backwardHeap.peekKey() >= best) {
+                break;
+            }
+            boolean isForward = forwardHeap.peekKey() <= backwardHeap.peekKey();
+            SearchState state = isForward ? forward : backward;
+            SearchState other = isForward ? backward : forward;
+            int sign = isForward ? 1 : -1;
+
+            int v = state.heap.pop();
+            state.settle(v);
+            double dv = state.dist(v);
+            for (int e = g.edgeStart(v); e < g.edgeEnd(v); e++) {
+                int w = g.edgeTarget(e);
+                double d = dv + g.edgeCost(e, metric);
+                if (d < state.dist(w)) {
+                    state.update(w, d, v);
+                    state.heap.push(w, d + potential(g, metric, state, w, s, t, sign));
+                }
+                if (other.reached(w) && d + other.dist(w) < best) {
+                    best = d + other.dist(w);
+                    meetForward = isForward ? v : w;
+                    meetBackward = isForward ? w : v;
+                }
+            }
+        }
+
+        if (meetForward < 0) {
+            return new ArrayList<>();
+        }
+        List<Long> path = forward.path(g, meetForward);
+        int v = meetForward == meetBackward ? backward.parent(meetBackward) : meetBackward;
+        for (; v >= 0; v = backward.parent(v)) {
+            path.add(g.vertexId(v));
+        }
+        return path;
+    }
+
+//    sign * (h_t(v) - h_s(v)) / 2, computed once per vertex per direction
+    private static double potential(GraphDB g, Router.Metric metric, SearchState state, int v,
+                                    int s, int t, int sign) {
+        double p = state.estimate(v);
+        if (Double.isNaN(p)) {
+            p = sign * (g.estimateAt(v, t, metric) - g.estimateAt(v, s, metric)) / 2.0;
+            state.setEstimate(v, p);
+        }
+        return p;
+    }
+}
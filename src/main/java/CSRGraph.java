@@ -0,0 +1,402 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+
+/**
+ * Frozen compressed sparse row (CSR) view of the road graph. Vertices are numbered densely
+ * from 0 to size() - 1, in the iteration order of the node map the graph was built from or,
+ * after hilbertOrdered(), along a space-filling curve over their coordinates. The outgoing
+ * edges of vertex v occupy the half-open range [edgeStart(v), edgeEnd(v)) of the target
+ * array. The structure is built once after GraphDB.clean() and never modified, so walking
+ * the neighbours of a vertex is a pair of array reads with no boxing or allocation:
+ *
+ * <pre>
+ *     for (int e = csr.edgeStart(v); e < csr.edgeEnd(v); e++) {
+ *         int w = csr.target(e);
+ *     }
+ * </pre>
+ */
+class CSRGraph {
+//    bits per coordinate of the Hilbert grid; the curve position takes twice as many
+    private static final int HILBERT_BITS = 15;
+
+//    OSM id of every dense vertex index
+    private final long[] ids;
+
+//    OSM id -> dense vertex index
+    private final LongIntMap index;
+
+//    fixed-point coordinates of every dense vertex index
+    private final CoordinateStore coords;
+
+//    cosine of the latitude of every vertex, precomputed for the A* heuristic
+    private final double[] cosLats;
+
+//    offsets[v] is the first edge of v, offsets[v + 1] is one past its last edge
+    private final int[] offsets;
+
+//    dense index of the vertex each edge points to
+    private final int[] targets;
+
+//    great-circle length in miles of each edge, parallel to targets
+    private final double[] weights;
+
+//    WayTable id of the way each edge belongs to, parallel to targets
+    private final int[] ways;
+
+    private CSRGraph(long[] ids, LongIntMap index, CoordinateStore coords,
+                     int[] offsets, int[] targets, double[] weights, int[] ways) {
+        this.ids = ids;
+        this.index = index;
+        this.coords = coords;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.weights = weights;
+        this.ways = ways;
+        cosLats = new double[ids.length];
+        for (int v = 0; v < ids.length; v++) {
+            cosLats[v] = Math.cos(Math.toRadians(coords.lat(v)));
+        }
+    }
+
+    /**
+     * Build the CSR arrays from the cleaned node map. Neighbours keep the order in which
+     * buildPath added them, so searches see exactly the same edge order as before.
+     * @param nodes the connected vertices of the graph.
+     */
+    static CSRGraph build(LinkedHashMap<Long, GraphDB.Node> nodes) {
+        int n = nodes.size();
+        long[] ids = new long[n];
+        LongIntMap index = new LongIntMap(n);
+        CoordinateStore coords = new CoordinateStore(n);
+        int m = 0;
+        int v = 0;
+        for (GraphDB.Node node : nodes.values()) {
+            ids[v] = node.getID();
+            index.put(node.getID(), v);
+            coords.set(v, node.getLon(), node.getLat());
+            m += node.getAdjNode().size();
+            v++;
+        }
+
+        int[] offsets = new int[n + 1];
+        int[] targets = new int[m];
+        int[] ways = new int[m];
+        int e = 0;
+        v = 0;
+        for (GraphDB.Node node : nodes.values()) {
+            offsets[v] = e;
+            ArrayList<Long> adjNodes = node.getAdjNode();
+            ArrayList<Integer> adjWays = node.getAdjWay();
+            for (int i = 0; i < adjNodes.size(); i++) {
+                targets[e] = index.get(adjNodes.get(i));
+                ways[e] = adjWays.get(i);
+                e++;
+            }
+            v++;
+        }
+        offsets[n] = e;
+
+        double[] weights = new double[m];
+        for (v = 0; v < n; v++) {
+            for (e = offsets[v]; e < offsets[v + 1]; e++) {
+                int w = targets[e];
+                weights[e] = GraphDB.distance(coords.lon(v), coords.lat(v), coords.lon(w), coords.lat(w));
+            }
+        }
+        return new CSRGraph(ids, index, coords, offsets, targets, weights, ways);
+    }
+
+    /**
+     * Return the subgraph of the vertices keep is true for, with edges to dropped vertices
+     * removed. Kept vertices and their edges stay in the same relative order.
+     * @param keep whether to keep each dense vertex index.
+     */
+    CSRGraph retain(boolean[] keep) {
+        int n = 0;
+        for (boolean k : keep) {
+            n += k ? 1 : 0;
+        }
+        int[] order = new int[n];
+        n = 0;
+        for (int v = 0; v < keep.length; v++) {
+            if (keep[v]) {
+                order[n++] = v;
+            }
+        }
+        return renumber(order);
+    }
+
+    /**
+     * Return the same graph with its vertices renumbered along a Hilbert curve over their
+     * coordinates, so vertices that are close on the map are close in every per-vertex array
+     * and most edges point to a nearby index. A search expands outward from its source, so in
+     * this order it keeps touching the same few cache lines and pages instead of jumping
+     * across the arrays as it does in OSM file order. Vertices with equal curve positions
+     * keep their relative order, and every vertex keeps its edges in the same order.
+     */
+    CSRGraph hilbertOrdered() {
+        int n = ids.length;
+        double minLon = Double.MAX_VALUE, maxLon = -Double.MAX_VALUE;
+        double minLat = Double.MAX_VALUE, maxLat = -Double.MAX_VALUE;
+        for (int v = 0; v < n; v++) {
+            minLon = Math.min(minLon, coords.lon(v));
+            maxLon = Math.max(maxLon, coords.lon(v));
+            minLat = Math.min(minLat, coords.lat(v));
+            maxLat = Math.max(maxLat, coords.lat(v));
+        }
+        int side = 1 << HILBERT_BITS;
+        double xScale = (side - 1) / Math.max(maxLon - minLon, 1e-9);
+        double yScale = (side - 1) / Math.max(maxLat - minLat, 1e-9);
+
+//        curve position in the high bits and old index in the low bits, so one primitive
+//        sort orders by position and breaks ties by old index
+        long[] keys = new long[n];
+        for (int v = 0; v < n; v++) {
+            int x = (int) ((coords.lon(v) - minLon) * xScale);
+            int y = (int) ((coords.lat(v) - minLat) * yScale);
+            keys[v] = hilbertIndex(x, y) << 32 | v;
+        }
+        Arrays.sort(keys);
+        int[] order = new int[n];
+        for (int u = 0; u < n; u++) {
+            order[u] = (int) keys[u];
+        }
+        return renumber(order);
+    }
+
+//    position of cell (x, y) along the Hilbert curve filling a 2^HILBERT_BITS square
+    private static long hilbertIndex(int x, int y) {
+        long d = 0;
+        for (int s = 1 << (HILBERT_BITS - 1); s > 0; s >>= 1) {
+            int rx = (x & s) != 0 ? 1 : 0;
+            int ry = (y & s) != 0 ? 1 : 0;
+            d += (long) s * s * ((3 * rx) ^ ry);
+//            rotate the quadrant so the sub-curve inside it has the standard orientation
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = s - 1 - x;
+                    y = s - 1 - y;
+                }
+                int t = x;
+                x = y;
+                y = t;
+            }
+        }
+        return d;
+    }
+
+    /**
+     * Return the graph with vertex order[u] of this graph as vertex u. Vertices missing from
+     * order are dropped along with the edges that point to them.
+     * @param order distinct dense vertex indices of this graph, in their new order.
+     */
+    private CSRGraph renumber(int[] order) {
+        int[] newIndex = new int[ids.length];
+        Arrays.fill(newIndex, -1);
+        for (int u = 0; u < order.length; u++) {
+            newIndex[order[u]] = u;
+        }
+        int n = order.length;
+        int m = 0;
+        for (int v : order) {
+            for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+                if (newIndex[targets[e]] >= 0) {
+                    m++;
+                }
+            }
+        }
+        long[] newIds = new long[n];
+        LongIntMap index = new LongIntMap(n);
+        CoordinateStore newCoords = new CoordinateStore(n);
+        int[] newOffsets = new int[n + 1];
+        int[] newTargets = new int[m];
+        double[] newWeights = new double[m];
+        int[] newWays = new int[m];
+        int e2 = 0;
+        for (int u = 0; u < n; u++) {
+            int v = order[u];
+            newIds[u] = ids[v];
+            index.put(ids[v], u);
+            newCoords.set(u, coords.lon(v), coords.lat(v));
+            newOffsets[u] = e2;
+            for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+                if (newIndex[targets[e]] >= 0) {
+                    newTargets[e2] = newIndex[targets[e]];
+                    newWeights[e2] = weights[e];
+                    newWays[e2] = ways[e];
+                    e2++;
+                }
+            }
+        }
+        newOffsets[n] = e2;
+        return new CSRGraph(newIds, index, newCoords, newOffsets, newTargets, newWeights, newWays);
+    }
+
+    /**
+     * Write the arrays to out in the layout readFrom expects: the vertex and edge counts,
+     * then ids, coordinates, offsets, targets, weights and ways.
+     */
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(ids.length);
+        out.writeInt(targets.length);
+        for (long id : ids) {
+            out.writeLong(id);
+        }
+        coords.writeTo(out);
+        for (int offset : offsets) {
+            out.writeInt(offset);
+        }
+        for (int target : targets) {
+            out.writeInt(target);
+        }
+        for (double weight : weights) {
+            out.writeDouble(weight);
+        }
+        for (int way : ways) {
+            out.writeInt(way);
+        }
+    }
+
+    /**
+     * Read a graph written by writeTo, advancing the position of in past it.
+     */
+    static CSRGraph readFrom(ByteBuffer in) {
+        int n = in.getInt();
+        int m = in.getInt();
+        long[] ids = new long[n];
+        int[] offsets = new int[n + 1];
+        int[] targets = new int[m];
+        double[] weights = new double[m];
+        int[] ways = new int[m];
+        in.asLongBuffer().get(ids);
+        in.position(in.position() + n * Long.BYTES);
+        CoordinateStore coords = CoordinateStore.readFrom(in);
+        in.asIntBuffer().get(offsets);
+        in.position(in.position() + (n + 1) * Integer.BYTES);
+        in.asIntBuffer().get(targets);
+        in.position(in.position() + m * Integer.BYTES);
+        in.asDoubleBuffer().get(weights);
+        in.position(in.position() + m * Double.BYTES);
+        in.asIntBuffer().get(ways);
+        in.position(in.position() + m * Integer.BYTES);
+
+        LongIntMap index = new LongIntMap(n);
+        for (int v = 0; v < n; v++) {
+            index.put(ids[v], v);
+        }
+        return new CSRGraph(ids, index, coords, offsets, targets, weights, ways);
+    }
+
+    /**
+     * @return the number of vertices.
+     */
+    int size() {
+        return ids.length;
+    }
+
+    /**
+     * @return the number of directed edges; every road segment is stored in both directions.
+     */
+    int edgeCount() {
+        return targets.length;
+    }
+
+    /**
+     * @param v a dense vertex index.
+     * @return the OSM id of v.
+     */
+    long id(int v) {
+        return ids[v];
+    }
+
+    /**
+     * @param id an OSM node id.
+     * @return the dense index of that node, or -1 if it is not a vertex of the graph.
+     */
+    int indexOf(long id) {
+        return index.get(id);
+    }
+
+    /**
+     * @return the fixed-point coordinates of the vertices.
+     */
+    CoordinateStore coordinates() {
+        return coords;
+    }
+
+    /**
+     * @param v a dense vertex index.
+     * @return the longitude of v.
+     */
+    double lon(int v) {
+        return coords.lon(v);
+    }
+
+    /**
+     * @param v a dense vertex index.
+     * @return the latitude of v.
+     */
+    double lat(int v) {
+        return coords.lat(v);
+    }
+
+    /**
+     * @param v a dense vertex index.
+     * @return the index of the first outgoing edge of v.
+     */
+    int edgeStart(int v) {
+        return offsets[v];
+    }
+
+    /**
+     * @param v a dense vertex index.
+     * @return one past the index of the last outgoing edge of v.
+     */
+    int edgeEnd(int v) {
+        return offsets[v + 1];
+    }
+
+    /**
+     * @param v a dense vertex index.
+     * @return the number of outgoing edges of v.
+     */
+    int degree(int v) {
+        return offsets[v + 1] - offsets[v];
+    }
+
+    /**
+     * @param e an edge index.
+     * @return the dense index of the vertex edge e points to.
+     */
+    int target(int e) {
+        return targets[e];
+    }
+
+    /**
+     * @param e an edge index.
+     * @return the length of edge e in miles, computed once when the graph was built.
+     */
+    double weight(int e) {
+        return weights[e];
+    }
+
+    /**
+     * @param e an edge index.
+     * @return the WayTable id of the way edge e belongs to.
+     */
+    int way(int e) {
+        return ways[e];
+    }
+
+    /**
+     * @param v a dense vertex index.
+     * @return the cosine of the latitude of v.
+     */
+    double cosLat(int v) {
+        return cosLats[v];
+    }
+}
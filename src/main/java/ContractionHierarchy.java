@@ -0,0 +1,693 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Contraction Hierarchies over the road graph of a GraphDB. Preprocessing contracts the
+ * vertices one at a time in order of importance; whenever removing a vertex v would lengthen
+ * the shortest path between two of its remaining neighbours, a shortcut edge through v is
+ * added between them. Every edge then leads from a vertex to one contracted later (its
+ * "upward" edges), and a shortest path query is a pair of small Dijkstra searches, from the
+ * start and from the target, that only ever go upward and meet at the highest vertex of the
+ * path. Shortcuts remember the two edges they replace, so a route found in the hierarchy is
+ * unpacked back into the original sequence of OSM nodes.
+ *
+ * The graph stores every road segment in both directions with the same weight, so the
+ * hierarchy is undirected: each edge is kept once, at its lower-ranked endpoint, and both
+ * query directions walk the same upward edges.
+ */
+class ContractionHierarchy {
+    private static final long MAGIC = 0x424d41504348L;
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = Long.BYTES + Integer.BYTES + Long.BYTES
+            + 2 * Integer.BYTES;
+
+//    a witness search gives up after settling this many vertices and adds the shortcut
+    private static final int WITNESS_SETTLE_LIMIT = 100;
+
+//    fingerprint of the graph the hierarchy was built for
+    private final long fingerprint;
+
+//    contraction order of every vertex; higher means more important
+    private final int[] rank;
+
+//    endpoints, weight, and for shortcuts the middle vertex and the two replaced edges
+    private final int[] edgeA, edgeB, middle, child1, child2;
+    private final double[] edgeWeight;
+
+//    upward edges of v are upEdges[upOffsets[v]] .. upEdges[upOffsets[v + 1] - 1]
+    private final int[] upOffsets;
+    private final int[] upEdges;
+    private final int[] upTargets;
+    private final double[] upWeights;
+
+    private ContractionHierarchy(long fingerprint, int[] rank, int[] edgeA, int[] edgeB,
+                                 int[] middle, int[] child1, int[] child2, double[] edgeWeight,
+                                 int[] upOffsets, int[] upEdges) {
+        this.fingerprint = fingerprint;
+        this.rank = rank;
+        this.edgeA = edgeA;
+        this.edgeB = edgeB;
+        this.middle = middle;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.edgeWeight = edgeWeight;
+        this.upOffsets = upOffsets;
+        this.upEdges = upEdges;
+        upTargets = new int[upEdges.length];
+        upWeights = new double[upEdges.length];
+        for (int v = 0; v + 1 < upOffsets.length; v++) {
+            for (int i = upOffsets[v]; i < upOffsets[v + 1]; i++) {
+                int e = upEdges[i];
+                upTargets[i] = edgeA[e] == v ? edgeB[e] : edgeA[e];
+                upWeights[i] = edgeWeight[e];
+            }
+        }
+    }
+
+    /**
+     * Load the hierarchy for g from file if it was built for this graph and metric, otherwise
+     * build it and write it to file for next time.
+     * @param metric The edge costs the hierarchy is built for.
+     * @param file where the hierarchy is persisted, or null to always build.
+     */
+    static ContractionHierarchy loadOrBuild(GraphDB g, Router.Metric metric, File file) {
+        if (file != null && file.exists()) {
+            try {
+                ContractionHierarchy ch = read(file);
+                if (ch != null && ch.fingerprint == g.fingerprint(metric)) {
+                    return ch;
+                }
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+        ContractionHierarchy ch = build(g, metric);
+        if (file != null) {
+            try {
+                ch.write(file);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return ch;
+    }
+
+    /**
+     * @return the number of edges in the hierarchy, original edges and shortcuts together.
+     */
+    int edgeCount() {
+        return edgeWeight.length;
+    }
+
+    /**
+     * @return the number of shortcut edges added by preprocessing.
+     */
+    int shortcutCount() {
+        int count = 0;
+        for (int m : middle) {
+            if (m >= 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Find a shortest path from s to t.
+     * @param g The graph the hierarchy was built for.
+     * @param forward Search state for the search from s, reset by this call.
+     * @param backward Search state for the search from t, reset by this call.
+     * @return the OSM ids of the vertices on a shortest path, or an empty list if t cannot
+     * be reached from s.
+     */
+    List<Long> route(GraphDB g, SearchState forward, SearchState backward, int s, int t) {
+        forward.reset();
+        backward.reset();
+        forward.update(s, 0.0, -1);
+        forward.heap.push(s, 0.0);
+        backward.update(t, 0.0, -1);
+        backward.heap.push(t, 0.0);
+
+        double best = Double.POSITIVE_INFINITY;
+        int meet = -1;
+        while (true) {
+            boolean forwardActive = !forward.heap.isEmpty() && forward.heap.peekKey() < best;
+            boolean backwardActive = !backward.heap.isEmpty() && backward.heap.peekKey() < best;
+            if (!forwardActive && !backwardActive) {
+                break;
+            }
+            boolean isForward = forwardActive
+                    && (!backwardActive || forward.heap.peekKey() <= backward.heap.peekKey());
+            SearchState state = isForward ? forward : backward;
+            SearchState other = isForward ? backward : forward;
+
+            int v = state.heap.pop();
+            state.settle(v);
+            double dv = state.dist(v);
+            if (other.reached(v) && dv + other.dist(v) < best) {
+                best = dv + other.dist(v);
+                meet = v;
+            }
+            if (!stalled(state, v, dv)) {
+                relax(state, v, dv);
+            }
+        }
+
+        List<Long> path = new ArrayList<>();
+        if (meet < 0) {
+            return path;
+        }
+        IntStack chain = new IntStack();
+        for (int v = meet; v >= 0; v = forward.parent(v)) {
+            chain.push(v);
+        }
+        int from = chain.pop();
+        path.add(g.vertexId(from));
+        while (!chain.isEmpty()) {
+            int to = chain.pop();
+            unpack(g, upEdge(from, to), from, path);
+            from = to;
+        }
+        for (int to = backward.parent(meet); to >= 0; to = backward.parent(to)) {
+            unpack(g, upEdge(to, from), from, path);
+            from = to;
+        }
+        return path;
+    }
+
+    /**
+     * Run a complete upward search from source, like one half of a query but without a
+     * target. Afterwards state.dist(v) is the upward distance of every returned vertex.
+     * @param source The dense index of the start vertex, or -1 for an empty search space.
+     * @return the settled vertices that were not stalled, in the order they were settled.
+     */
+    int[] searchSpace(SearchState state, int source) {
+        if (source < 0) {
+            return new int[0];
+        }
+        state.reset();
+        state.update(source, 0.0, -1);
+        state.heap.push(source, 0.0);
+        int[] space = new int[32];
+        int size = 0;
+        while (!state.heap.isEmpty()) {
+            int v = state.heap.pop();
+            state.settle(v);
+            double dv = state.dist(v);
+            if (stalled(state, v, dv)) {
+                continue;
+            }
+            if (size == space.length) {
+                space = Arrays.copyOf(space, size * 2);
+            }
+            space[size++] = v;
+            relax(state, v, dv);
+        }
+        return Arrays.copyOf(space, size);
+    }
+
+//    relax the upward edges of v, settled at distance dv
+    private void relax(SearchState state, int v, double dv) {
+        for (int i = upOffsets[v]; i < upOffsets[v + 1]; i++) {
+            int w = upTargets[i];
+            double d = dv + upWeights[i];
+            if (d < state.dist(w)) {
+                state.update(w, d, v);
+                state.heap.push(w, d);
+            }
+        }
+    }
+
+    /**
+     * Stall-on-demand: v need not be expanded if some higher vertex that has already been
+     * reached offers a shorter way down to it.
+     */
+    private boolean stalled(SearchState state, int v, double dv) {
+        for (int i = upOffsets[v]; i < upOffsets[v + 1]; i++) {
+            int w = upTargets[i];
+            if (state.reached(w) && state.dist(w) + upWeights[i] < dv) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+//    the lightest upward edge of low that leads to high
+    private int upEdge(int low, int high) {
+        int best = -1;
+        for (int i = upOffsets[low]; i < upOffsets[low + 1]; i++) {
+            if (upTargets[i] == high && (best < 0 || upWeights[i] < edgeWeight[best])) {
+                best = upEdges[i];
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Append to path the OSM ids of the vertices edge e passes through when walked from the
+     * endpoint start, excluding start itself.
+     */
+    private void unpack(GraphDB g, int e, int start, List<Long> path) {
+        IntStack stack = new IntStack();
+        stack.push(e);
+        stack.push(start);
+        while (!stack.isEmpty()) {
+            int from = stack.pop();
+            int edge = stack.pop();
+            int to = edgeA[edge] == from ? edgeB[edge] : edgeA[edge];
+            if (middle[edge] < 0) {
+                path.add(g.vertexId(to));
+                continue;
+            }
+            int mid = middle[edge];
+            int first = child1[edge];
+            int second = child2[edge];
+            if (edgeA[first] != from && edgeB[first] != from) {
+                first = child2[edge];
+                second = child1[edge];
+            }
+            stack.push(second);
+            stack.push(mid);
+            stack.push(first);
+            stack.push(from);
+        }
+    }
+
+    /**
+     * Contract every vertex of g and return the resulting hierarchy.
+     * @param metric The edge costs to build the hierarchy for.
+     */
+    static ContractionHierarchy build(GraphDB g, Router.Metric metric) {
+        return new Builder(g, metric).build();
+    }
+
+    /**
+     * Preprocessing state: the edge list grows as shortcuts are added, and adj holds, for
+     * every vertex, the ids of its edges to vertices that have not been contracted yet.
+     */
+    private static class Builder {
+        private final GraphDB g;
+        private final Router.Metric metric;
+        private final int n;
+
+        private int[] edgeA, edgeB, middle, child1, child2;
+        private double[] edgeWeight;
+        private int edgeCount;
+
+        private final int[][] adj;
+        private final int[] degree;
+        private final boolean[] contracted;
+        private final int[] deletedNeighbours;
+        private final int[] rank;
+
+//        upward edges of every vertex, collected when it is contracted
+        private final int[][] up;
+
+        private final SearchState witness;
+
+//        scratch space for the neighbours of the vertex being contracted
+        private int[] neighbours = new int[16];
+        private int[] neighbourEdges = new int[16];
+        private double[] neighbourWeights = new double[16];
+
+        Builder(GraphDB g, Router.Metric metric) {
+            this.g = g;
+            this.metric = metric;
+            n = g.vertexCount();
+            int capacity = Math.max(16, g.edgeCount());
+            edgeA = new int[capacity];
+            edgeB = new int[capacity];
+            middle = new int[capacity];
+            child1 = new int[capacity];
+            child2 = new int[capacity];
+            edgeWeight = new double[capacity];
+            adj = new int[n][];
+            degree = new int[n];
+            contracted = new boolean[n];
+            deletedNeighbours = new int[n];
+            rank = new int[n];
+            up = new int[n][];
+            witness = new SearchState(n);
+
+            for (int v = 0; v < n; v++) {
+                adj[v] = new int[Math.max(2, g.edgeEnd(v) - g.edgeStart(v))];
+            }
+//            keep one edge per road segment: the lightest, ignoring self-loops
+            for (int v = 0; v < n; v++) {
+                for (int e = g.edgeStart(v); e < g.edgeEnd(v); e++) {
+                    int w = g.edgeTarget(e);
+                    if (w > v) {
+                        addOrImprove(v, w, g.edgeCost(e, metric), -1, -1, -1);
+                    }
+                }
+            }
+        }
+
+        ContractionHierarchy build() {
+            IndexedMinHeap queue = new IndexedMinHeap(n);
+            for (int v = 0; v < n; v++) {
+                queue.push(v, priority(v));
+            }
+            int order = 0;
+            while (!queue.isEmpty()) {
+                int v = queue.pop();
+                double p = priority(v);
+                if (!queue.isEmpty() && p > queue.peekKey()) {
+                    queue.push(v, p);
+                    continue;
+                }
+                contract(v, false);
+                contracted[v] = true;
+                rank[v] = order++;
+
+                int count = liveNeighbours(v);
+                up[v] = Arrays.copyOf(neighbourEdges, count);
+                int[] touched = Arrays.copyOf(neighbours, count);
+                for (int u : touched) {
+                    deletedNeighbours[u]++;
+                    removeEdgesTo(u, v);
+                    queue.update(u, priority(u));
+                }
+            }
+
+            int[] upOffsets = new int[n + 1];
+            for (int v = 0; v < n; v++) {
+                upOffsets[v + 1] = upOffsets[v] + up[v].length;
+            }
+            int[] upEdges = new int[upOffsets[n]];
+            for (int v = 0; v < n; v++) {
+                System.arraycopy(up[v], 0, upEdges, upOffsets[v], up[v].length);
+            }
+            return new ContractionHierarchy(g.fingerprint(metric), rank,
+                    Arrays.copyOf(edgeA, edgeCount), Arrays.copyOf(edgeB, edgeCount),
+                    Arrays.copyOf(middle, edgeCount), Arrays.copyOf(child1, edgeCount),
+                    Arrays.copyOf(child2, edgeCount), Arrays.copyOf(edgeWeight, edgeCount),
+                    upOffsets, upEdges);
+        }
+
+//        edge difference plus the number of neighbours already contracted
+        private double priority(int v) {
+            int count = liveNeighbours(v);
+            return contract(v, true) - count + deletedNeighbours[v];
+        }
+
+        /**
+         * Find the shortcuts needed to contract v, adding them unless simulate is set.
+         * @return the number of shortcuts.
+         */
+        private int contract(int v, boolean simulate) {
+            int count = liveNeighbours(v);
+            int[] nbrs = Arrays.copyOf(neighbours, count);
+            int[] nbrEdges = Arrays.copyOf(neighbourEdges, count);
+            double[] nbrWeights = Arrays.copyOf(neighbourWeights, count);
+            int shortcuts = 0;
+            for (int i = 0; i < count; i++) {
+                double maxVia = 0;
+                for (int j = i + 1; j < count; j++) {
+                    maxVia = Math.max(maxVia, nbrWeights[i] + nbrWeights[j]);
+                }
+                if (i + 1 == count) {
+                    break;
+                }
+                witnessSearch(nbrs[i], v, maxVia);
+                for (int j = i + 1; j < count; j++) {
+                    double via = nbrWeights[i] + nbrWeights[j];
+                    if (witness.dist(nbrs[j]) <= via) {
+                        continue;
+                    }
+                    shortcuts++;
+                    if (!simulate) {
+                        addOrImprove(nbrs[i], nbrs[j], via, v, nbrEdges[i], nbrEdges[j]);
+                    }
+                }
+            }
+            return shortcuts;
+        }
+
+//        bounded Dijkstra from source over uncontracted vertices, avoiding skip
+        private void witnessSearch(int source, int skip, double limit) {
+            witness.reset();
+            witness.update(source, 0.0, -1);
+            witness.heap.push(source, 0.0);
+            int settled = 0;
+            while (!witness.heap.isEmpty() && settled < WITNESS_SETTLE_LIMIT) {
+                if (witness.heap.peekKey() > limit) {
+                    break;
+                }
+                int u = witness.heap.pop();
+                settled++;
+                double du = witness.dist(u);
+                for (int i = 0; i < degree[u]; i++) {
+                    int e = adj[u][i];
+                    int w = edgeA[e] == u ? edgeB[e] : edgeA[e];
+                    if (w == skip || contracted[w]) {
+                        continue;
+                    }
+                    double d = du + edgeWeight[e];
+                    if (d < witness.dist(w)) {
+                        witness.update(w, d, u);
+                        witness.heap.push(w, d);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Collect the uncontracted neighbours of v into the scratch arrays, with the lightest
+         * edge to each.
+         * @return the number of neighbours.
+         */
+        private int liveNeighbours(int v) {
+            int count = 0;
+            for (int i = 0; i < degree[v]; i++) {
+                int e = adj[v][i];
+                int w = edgeA[e] == v ? edgeB[e] : edgeA[e];
+                if (contracted[w]) {
+                    continue;
+                }
+                int k = 0;
+                while (k < count && neighbours[k] != w) {
+                    k++;
+                }
+                if (k == count) {
+                    if (count == neighbours.length) {
+                        neighbours = Arrays.copyOf(neighbours, count * 2);
+                        neighbourEdges = Arrays.copyOf(neighbourEdges, count * 2);
+                        neighbourWeights = Arrays.copyOf(neighbourWeights, count * 2);
+                    }
+                    neighbours[count] = w;
+                    neighbourEdges[count] = e;
+                    neighbourWeights[count] = edgeWeight[e];
+                    count++;
+                } else if (edgeWeight[e] < neighbourWeights[k]) {
+                    neighbourEdges[k] = e;
+                    neighbourWeights[k] = edgeWeight[e];
+                }
+            }
+            return count;
+        }
+
+        /**
+         * Connect a and b with an edge of the given weight, replacing a heavier existing edge
+         * between them; does nothing if they are already connected at least as cheaply.
+         */
+        private void addOrImprove(int a, int b, double weight, int mid, int c1, int c2) {
+            int existing = -1;
+            for (int i = 0; i < degree[a]; i++) {
+                int e = adj[a][i];
+                if ((edgeA[e] == b || edgeB[e] == b) && edgeA[e] != edgeB[e]) {
+                    existing = i;
+                    break;
+                }
+            }
+            if (existing >= 0 && edgeWeight[adj[a][existing]] <= weight) {
+                return;
+            }
+            int id = newEdge(a, b, weight, mid, c1, c2);
+            if (existing >= 0) {
+                int old = adj[a][existing];
+                adj[a][existing] = id;
+                for (int i = 0; i < degree[b]; i++) {
+                    if (adj[b][i] == old) {
+                        adj[b][i] = id;
+                    }
+                }
+            } else {
+                append(a, id);
+                append(b, id);
+            }
+        }
+
+        private int newEdge(int a, int b, double weight, int mid, int c1, int c2) {
+            if (edgeCount == edgeWeight.length) {
+                int capacity = edgeCount * 2;
+                edgeA = Arrays.copyOf(edgeA, capacity);
+                edgeB = Arrays.copyOf(edgeB, capacity);
+                middle = Arrays.copyOf(middle, capacity);
+                child1 = Arrays.copyOf(child1, capacity);
+                child2 = Arrays.copyOf(child2, capacity);
+                edgeWeight = Arrays.copyOf(edgeWeight, capacity);
+            }
+            edgeA[edgeCount] = a;
+            edgeB[edgeCount] = b;
+            middle[edgeCount] = mid;
+            child1[edgeCount] = c1;
+            child2[edgeCount] = c2;
+            edgeWeight[edgeCount] = weight;
+            return edgeCount++;
+        }
+
+        private void append(int v, int e) {
+            if (degree[v] == adj[v].length) {
+                adj[v] = Arrays.copyOf(adj[v], degree[v] * 2);
+            }
+            adj[v][degree[v]++] = e;
+        }
+
+//        drop the edges between u and the contracted vertex v from the adjacency of u
+        private void removeEdgesTo(int u, int v) {
+            int kept = 0;
+            for (int i = 0; i < degree[u]; i++) {
+                int e = adj[u][i];
+                if (edgeA[e] != v && edgeB[e] != v) {
+                    adj[u][kept++] = e;
+                }
+            }
+            degree[u] = kept;
+        }
+    }
+
+    /**
+     * Write the hierarchy to file, followed by a CRC32 of everything before it, through a
+     * temporary file that is moved into place.
+     */
+    void write(File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        CRC32 crc = new CRC32();
+        try (DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16), crc))) {
+            out.writeLong(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(fingerprint);
+            out.writeInt(rank.length);
+            out.writeInt(edgeWeight.length);
+            for (int r : rank) {
+                out.writeInt(r);
+            }
+            for (int e = 0; e < edgeWeight.length; e++) {
+                out.writeInt(edgeA[e]);
+                out.writeInt(edgeB[e]);
+                out.writeInt(middle[e]);
+                out.writeInt(child1[e]);
+                out.writeInt(child2[e]);
+                out.writeDouble(edgeWeight[e]);
+            }
+            for (int offset : upOffsets) {
+                out.writeInt(offset);
+            }
+            for (int e : upEdges) {
+                out.writeInt(e);
+            }
+            out.writeInt((int) crc.getValue());
+        }
+        try {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Read a hierarchy written by write.
+     * @return the hierarchy, or null if the file has another format version or is corrupt.
+     */
+    static ContractionHierarchy read(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES + Integer.BYTES || size > Integer.MAX_VALUE) {
+                return null;
+            }
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (in.getLong() != MAGIC || in.getInt() != VERSION) {
+                return null;
+            }
+
+            int end = (int) size - Integer.BYTES;
+            ByteBuffer body = in.duplicate();
+            body.position(0);
+            body.limit(end);
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            if ((int) crc.getValue() != in.getInt(end)) {
+                return null;
+            }
+
+            long fingerprint = in.getLong();
+            int n = in.getInt();
+            int m = in.getInt();
+            int[] rank = new int[n];
+            in.asIntBuffer().get(rank);
+            in.position(in.position() + n * Integer.BYTES);
+            int[] edgeA = new int[m];
+            int[] edgeB = new int[m];
+            int[] middle = new int[m];
+            int[] child1 = new int[m];
+            int[] child2 = new int[m];
+            double[] edgeWeight = new double[m];
+            for (int e = 0; e < m; e++) {
+                edgeA[e] = in.getInt();
+                edgeB[e] = in.getInt();
+                middle[e] = in.getInt();
+                child1[e] = in.getInt();
+                child2[e] = in.getInt();
+                edgeWeight[e] = in.getDouble();
+            }
+            int[] upOffsets = new int[n + 1];
+            in.asIntBuffer().get(upOffsets);
+            in.position(in.position() + (n + 1) * Integer.BYTES);
+            int[] upEdges = new int[upOffsets[n]];
+            in.asIntBuffer().get(upEdges);
+            return new ContractionHierarchy(fingerprint, rank, edgeA, edgeB, middle, child1,
+                    child2, edgeWeight, upOffsets, upEdges);
+        }
+    }
+
+    /**
+     * Minimal growable stack of ints for unpacking and path assembly.
+     */
+    private static class IntStack {
+        private int[] items = new int[32];
+        private int size;
+
+        void push(int x) {
+            if (size == items.length) {
+                items = Arrays.copyOf(items, size * 2);
+            }
+            items[size++] = x;
+        }
+
+        int pop() {
+            return items[--size];
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Vertex coordinates stored as parallel int arrays in fixed point, in units of 1e-7 degrees,
+ * indexed by dense vertex index. That is the precision OSM itself records coordinates with,
+ * and because the stored integer and the scale are both exact, decoding with a single
+ * division gives back the very double that Double.parseDouble produced from the OSM file.
+ * Eight bytes per vertex replace a GraphDB.Node with its header, boxed map entry and two
+ * doubles, and the arrays contain no references for the garbage collector to scan.
+ */
+class CoordinateStore {
+//    fixed-point units per degree
+    static final double SCALE = 1e7;
+
+    private final int[] lonE7;
+    private final int[] latE7;
+
+    /**
+     * @param size the number of vertices; coordinates start out at (0, 0).
+     */
+    CoordinateStore(int size) {
+        lonE7 = new int[size];
+        latE7 = new int[size];
+    }
+
+    private CoordinateStore(int[] lonE7, int[] latE7) {
+        this.lonE7 = lonE7;
+        this.latE7 = latE7;
+    }
+
+    /**
+     * @return the fixed-point value of a coordinate in degrees.
+     */
+    static int encode(double degrees) {
+        return (int) Math.round(degrees * SCALE);
+    }
+
+    /**
+     * @return the coordinate in degrees of a fixed-point value.
+     */
+    static double decode(int fixed) {
+        return fixed / SCALE;
+    }
+
+    void set(int v, double lon, double lat) {
+        lonE7[v] = encode(lon);
+        latE7[v] = encode(lat);
+    }
+
+    int size() {
+        return lonE7.length;
+    }
+
+    double lon(int v) {
+        return lonE7[v] / SCALE;
+    }
+
+    double lat(int v) {
+        return latE7[v] / SCALE;
+    }
+
+    int lonE7(int v) {
+        return lonE7[v];
+    }
+
+    int latE7(int v) {
+        return latE7[v];
+    }
+
+    /**
+     * Write the coordinates to out: the vertex count, then all longitudes, then all latitudes.
+     */
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(lonE7.length);
+        for (int lon : lonE7) {
+            out.writeInt(lon);
+        }
+        for (int lat : latE7) {
+            out.writeInt(lat);
+        }
+    }
+
+    /**
+     * Read coordinates written by writeTo, advancing the position of in past them.
+     */
+    static CoordinateStore readFrom(ByteBuffer in) {
+        int n = in.getInt();
+        int[] lonE7 = new int[n];
+        int[] latE7 = new int[n];
+        in.asIntBuffer().get(lonE7);
+        in.position(in.position() + n * Integer.BYTES);
+        in.asIntBuffer().get(latE7);
+        in.position(in.position() + n * Integer.BYTES);
+        return new CoordinateStore(lonE7, latE7);
+    }
+}
@@ -0,0 +1,87 @@
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Many-to-many shortest path distances with the bucket method over the contraction hierarchy
+ * of a GraphDB. A complete upward search is run once from every target, and each vertex it
+ * settles gets a bucket entry (target, distance). A complete upward search from a source then
+ * finds its distance to every target at once: the shortest path to a target meets that
+ * target's search space at the path's highest vertex, so the distance is the smallest
+ * d(source, v) + d(v, target) over the bucket entries of the vertices the source settles.
+ *
+ * Upward search spaces hold a few hundred vertices, so an N x M table costs N + M small
+ * searches instead of N * M full ones. The searches of both sides run in parallel, each on
+ * its worker's own search state.
+ */
+class DistanceMatrix {
+    private DistanceMatrix() {
+    }
+
+    /**
+     * Compute the distances from every source to every target.
+     * @param g The graph to use.
+     * @param sources Dense indices of the source vertices, -1 for a source that reaches
+     *                nothing.
+     * @param targets Dense indices of the target vertices, -1 for a target that cannot be
+     *                reached.
+     * @param metric What the paths minimize.
+     * @return matrix[i][j] is the cost of the best path from sources[i] to targets[j], or
+     * infinity if there is no path.
+     */
+    static double[][] compute(GraphDB g, int[] sources, int[] targets, Router.Metric metric) {
+        ContractionHierarchy ch = g.contractionHierarchy(metric);
+        int n = g.vertexCount();
+
+        int[][] spaces = new int[targets.length][];
+        double[][] spaceDists = new double[targets.length][];
+        IntStream.range(0, targets.length).parallel().forEach(j -> {
+            SearchState state = g.backwardSearchState();
+            int[] space = ch.searchSpace(state, targets[j]);
+            double[] dists = new double[space.length];
+            for (int i = 0; i < space.length; i++) {
+                dists[i] = state.dist(space[i]);
+            }
+            spaces[j] = space;
+            spaceDists[j] = dists;
+        });
+
+//        buckets of vertex v are bucketTargets/bucketDists[offsets[v]] .. [offsets[v + 1] - 1]
+        int[] offsets = new int[n + 1];
+        for (int[] space : spaces) {
+            for (int v : space) {
+                offsets[v + 1]++;
+            }
+        }
+        for (int v = 0; v < n; v++) {
+            offsets[v + 1] += offsets[v];
+        }
+        int[] bucketTargets = new int[offsets[n]];
+        double[] bucketDists = new double[offsets[n]];
+        int[] next = Arrays.copyOf(offsets, n);
+        for (int j = 0; j < targets.length; j++) {
+            for (int i = 0; i < spaces[j].length; i++) {
+                int b = next[spaces[j][i]]++;
+                bucketTargets[b] = j;
+                bucketDists[b] = spaceDists[j][i];
+            }
+        }
+
+        double[][] matrix = new double[sources.length][];
+        IntStream.range(0, sources.length).parallel().forEach(i -> {
+            double[] row = new double[targets.length];
+            Arrays.fill(row, Double.POSITIVE_INFINITY);
+            SearchState state = g.searchState();
+            for (int v : ch.searchSpace(state, sources[i])) {
+                double dv = state.dist(v);
+                for (int b = offsets[v]; b < offsets[v + 1]; b++) {
+                    double d = dv + bucketDists[b];
+                    if (d < row[bucketTargets[b]]) {
+                        row[bucketTargets[b]] = d;
+                    }
+                }
+            }
+            matrix[i] = row;
+        });
+        return matrix;
+    }
+}
@@ -0,0 +1,141 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A route between two points that lie in the middle of road segments, as found by
+ * GraphDB.closestSegment. Each endpoint acts as a virtual node joined to both ends of its
+ * segment by partial edges, whose costs are the matching fractions of the segment's cost.
+ * The search is A* seeded from both ends of the start segment at their partial costs,
+ * towards a virtual target reached through either end of the destination segment; the
+ * heuristic is the cheaper of the two ways in, which keeps it admissible and consistent.
+ * When both points lie on the same segment, travelling along it directly is considered too.
+ */
+public class EdgeRoute {
+    private final SegmentIndex.Snap start;
+    private final SegmentIndex.Snap end;
+    private final List<Long> path;
+    private final double cost;
+
+    private EdgeRoute(SegmentIndex.Snap start, SegmentIndex.Snap end, List<Long> path,
+                      double cost) {
+        this.start = start;
+        this.end = end;
+        this.path = Collections.unmodifiableList(path);
+        this.cost = cost;
+    }
+
+    /**
+     * Find the cheapest route from one point on a segment to another.
+     * @param g The graph to search.
+     * @param state Search state for g, reset by this call.
+     * @param start The start point.
+     * @param end The destination point.
+     * @param metric What the route minimizes.
+     */
+    static EdgeRoute compute(GraphDB g, SearchState state, SegmentIndex.Snap start,
+                             SegmentIndex.Snap end, Router.Metric metric) {
+        double startCost = g.edgeCost(start.edge, metric);
+        double endCost = g.edgeCost(end.edge, metric);
+        int c = end.from;
+        int d = end.to;
+        double tailC = end.fraction * endCost;
+        double tailD = (1 - end.fraction) * endCost;
+
+        double best = Double.POSITIVE_INFINITY;
+        int bestEnd = -1;
+        if (start.edge == end.edge) {
+            best = Math.abs(start.fraction - end.fraction) * startCost;
+        }
+
+        state.reset();
+        if (g.component(start.from) == g.component(c)) {
+            seed(g, metric, state, start.from, start.fraction * startCost, c, tailC, d, tailD);
+            seed(g, metric, state, start.to, (1 - start.fraction) * startCost, c, tailC, d, tailD);
+        }
+        IndexedMinHeap heap = state.heap;
+        while (!heap.isEmpty() && heap.peekKey() < best) {
+            int v = heap.pop();
+            state.settle(v);
+            double dv = state.dist(v);
+            if (v == c && dv + tailC < best) {
+                best = dv + tailC;
+                bestEnd = c;
+            }
+            if (v == d && dv + tailD < best) {
+                best = dv + tailD;
+                bestEnd = d;
+            }
+            for (int e = g.edgeStart(v); e < g.edgeEnd(v); e++) {
+                int w = g.edgeTarget(e);
+                double dw = dv + g.edgeCost(e, metric);
+                if (dw < state.dist(w)) {
+                    state.update(w, dw, v);
+                    heap.push(w, dw + heuristic(g, metric, state, w, c, tailC, d, tailD));
+                }
+            }
+        }
+
+        List<Long> path = bestEnd >= 0 ? state.path(g, bestEnd) : new ArrayList<>();
+        return new EdgeRoute(start, end, path, best);
+    }
+
+    private static void seed(GraphDB g, Router.Metric metric, SearchState state, int v,
+                             double cost, int c, double tailC, int d, double tailD) {
+        if (cost < state.dist(v)) {
+            state.update(v, cost, -1);
+            state.heap.push(v, cost + heuristic(g, metric, state, v, c, tailC, d, tailD));
+        }
+    }
+
+//    lower bound on the cost from v to the destination point through either end of its segment
+    private static double heuristic(GraphDB g, Router.Metric metric, SearchState state, int v,
+                                    int c, double tailC, int d, double tailD) {
+        double h = state.estimate(v);
+        if (Double.isNaN(h)) {
+            h = Math.min(g.estimateAt(v, c, metric) + tailC, g.estimateAt(v, d, metric) + tailD);
+            state.setEstimate(v, h);
+        }
+        return h;
+    }
+
+    /**
+     * @return whether the destination can be reached from the start.
+     */
+    public boolean isFound() {
+        return cost < Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * @return the cost of the route in the units of its metric, including the partial
+     * segments at both ends, or infinity if there is none.
+     */
+    public double getCost() {
+        return cost;
+    }
+
+    /**
+     * @return the OSM ids of the graph vertices the route passes through, between the start
+     * and destination points. Empty when both points lie on the same segment and the route
+     * runs directly along it, or when there is no route.
+     */
+    public List<Long> getPath() {
+        return path;
+    }
+
+    public double getStartLon() {
+        return start.lon;
+    }
+
+    public double getStartLat() {
+        return start.lat;
+    }
+
+    public double getEndLon() {
+        return end.lon;
+    }
+
+    public double getEndLat() {
+        return end.lat;
+    }
+}
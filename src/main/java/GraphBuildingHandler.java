@@ -101,6 +101,7 @@ public class GraphBuildingHandler extends DefaultHandler {
             if (k.equals("maxspeed")) {
                 lastWay.setMax_speed(v);
             } else if (k.equals("highway")) {
+                lastWay.setHighway(v);
                 lastWay.setValid(valid(v));
             } else if (k.equals("name")) {
                 lastWay.setName(v);
@@ -134,9 +135,15 @@ public class GraphBuildingHandler extends DefaultHandler {
     }
 
     public boolean valid(String highway) {
-        if(ALLOWED_HIGHWAY_TYPES.contains(highway))
-            return true;
-        return false;
+        return isAllowed(highway);
+    }
+
+    /**
+     * Whether ways with the given highway tag belong in the routing graph. Shared with
+     * OSMStreamReader so both parsers keep the same roads.
+     */
+    static boolean isAllowed(String highway) {
+        return ALLOWED_HIGHWAY_TYPES.contains(highway);
     }
 
 }
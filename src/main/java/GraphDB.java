@@ -1,16 +1,11 @@
-import org.xml.sax.SAXException;
-
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.parsers.SAXParser;
-import javax.xml.parsers.SAXParserFactory;
+import javax.xml.stream.XMLStreamException;
 import java.util.*;
 
 /**
  * Graph for storing all of the intersection (vertex) and road (edge) information.
- * Uses your GraphBuildingHandler to convert the XML files into a graph. Your
+ * Uses OSMStreamReader to convert the XML files (plain, .gz or .bz2) into a graph. Your
  * code must include the vertices, adjacent, distance, closest, lat, and lon
  * methods. You'll also need to include instance variables and methods for
  * modifying the graph (e.g. addNode and addEdge).
@@ -27,20 +22,69 @@ public class GraphDB {
 //    declare a LinkedHashMap to store all ways.
     private final LinkedHashMap<Long, Way> ways = new LinkedHashMap<>();
 
-//    declare a LinkedHashMap to store all pathName between two nodes. the first string tells the id of two nodes, the second
-//    string tells the pathName
-    private final LinkedHashMap<String, String> pathName = new LinkedHashMap<>();
+//    declare a WayTable to store the deduplicated name and attributes of the ways edges belong to
+    private WayTable wayTable = new WayTable();
 
-//    declare a LinkedHashMap to store all nodes
+//    declare a LinkedHashMap to store all named nodes, connected or not, for location search
     private LinkedHashMap<Long, Node> totalNodes = new LinkedHashMap<>();
 
+//    the binary snapshot of a graph is stored next to its OSM file with this suffix
+    static final String SNAPSHOT_SUFFIX = ".snapshot";
+
+//    preprocessing results of a graph are stored next to its OSM file with these suffixes,
+//    preceded by ".time" for the travel time metric
+    static final String HIERARCHY_SUFFIX = ".ch";
+    static final String LANDMARKS_SUFFIX = ".landmarks";
+
+//    the OSM file path preprocessing files are named after, or null to keep them in memory only
+    private final String preprocessingPath;
+
+//    contraction hierarchies and landmark tables per metric, built or loaded on first use
+    private final ContractionHierarchy[] hierarchies =
+            new ContractionHierarchy[Router.Metric.values().length];
+    private final Landmarks[] landmarks = new Landmarks[Router.Metric.values().length];
+
+//    connected component of every vertex, the size of every component, and the biggest one
+    private int[] components;
+    private int[] componentSizes;
+    private int largestComponent;
+
+//    components with fewer vertices than this are dropped after loading
+    private final int minComponentSize;
+
+//    whether closest and closestIndex only return vertices of the largest component
+    private volatile boolean snapToLargestComponent;
+
+//    travel time in seconds of every edge, at the speed of the way it belongs to
+    private double[] edgeTimes;
+
+//    highest speed of any edge in mph, which keeps the travel time heuristic admissible
+    private double maxSpeed;
+
+//    parse and build throughput of the XML read, or null if the graph came from a snapshot
+    private OSMStreamReader.Stats ingestStats;
+
+//    frozen CSR adjacency of the connected nodes, built once after clean()
+    private CSRGraph csr;
+
+//    grid index over the coordinates of the connected nodes, built together with csr
+    private SpatialIndex spatialIndex;
+    private SegmentIndex segmentIndex;
+
+//    reusable shortest path search state, one per thread and search direction
+    private final ThreadLocal<SearchState> searchStates =
+            ThreadLocal.withInitial(() -> new SearchState(csr.size()));
+    private final ThreadLocal<SearchState> backwardSearchStates =
+            ThreadLocal.withInitial(() -> new SearchState(csr.size()));
+
     /**
-     * create node class with attributes: 1)id, 2) lon & lat 3) adjNodes 4) name 5) isConnected
+     * create node class with attributes: 1)id, 2) lon & lat 3) adjNodes & adjWays 4) name 5) isConnected
      */
     static class Node {
         private long id;
         private double lon, lat;
         private ArrayList<Long> adjNodes;
+        private ArrayList<Integer> adjWays;
         private String name;
         private boolean isConnected = false;
 
@@ -49,6 +93,7 @@ public class GraphDB {
             this.lon = lon;
             this.lat = lat;
             adjNodes = new ArrayList<>();
+            adjWays = new ArrayList<>();
         }
 
         public long getID() {
@@ -79,15 +124,31 @@ public class GraphDB {
             return isConnected;
         }
 
-        public void addAdjNode(long adj) {
+        /**
+         * connect this node to adj through the way entry with the given WayTable id.
+         */
+        public void addAdjNode(long adj, int way) {
             this.setConnectedT();
             adjNodes.add(adj);
+            adjWays.add(way);
         }
 
         public ArrayList<Long> getAdjNode() {
             return adjNodes;
         }
 
+        public ArrayList<Integer> getAdjWay() {
+            return adjWays;
+        }
+
+        /**
+         * drop the build-time adjacency lists once the graph has been frozen into CSR form.
+         */
+        public void releaseAdjNodes() {
+            adjNodes = null;
+            adjWays = null;
+        }
+
     }
 
     /**
@@ -108,11 +169,11 @@ public class GraphDB {
     }
 
     /**
-     * create Way class with attributes: 1)isValid 2) max_speed 3) name 4) id 5) nodeInWay
+     * create Way class with attributes: 1)isValid 2) max_speed 3) name 4) id 5) nodeInWay 6) highway
      */
     static class Way {
         private boolean isValid;
-        private String max_speed, name;
+        private String max_speed, name, highway;
         private long id;
         private ArrayList<Long> nodeInWay;
 
@@ -125,6 +186,18 @@ public class GraphDB {
             this.max_speed = max_speed;
         }
 
+        public String getMax_speed() {
+            return max_speed;
+        }
+
+        public void setHighway(String highway) {
+            this.highway = highway;
+        }
+
+        public String getHighway() {
+            return highway;
+        }
+
         public void setName(String name) {
             this.name = name;
         }
@@ -179,49 +252,161 @@ public class GraphDB {
         Iterator<Long> ite = way.getNodes().iterator();
         long preID = ite.next();
         long postID = 0;
+        int wayID = wayTable.add(way);
         while(ite.hasNext()) {
             postID = ite.next();
             Node pre = nodes.get(preID);
             Node post = nodes.get(postID);
-            pre.addAdjNode(postID);
-            post.addAdjNode(preID);
-            pathName.put(preID + "to" + postID, way.getName());
-            pathName.put(postID + "to" + preID, way.getName());
+            pre.addAdjNode(postID, wayID);
+            post.addAdjNode(preID, wayID);
             preID = postID;
 
         }
     }
 
     /**
-     * Return the pathname between two nodes
+     * Return the pathname between two nodes. If several ways share the segment, the way
+     * added last wins.
      * @param start the id of start node.
      * @param end the id of end node.
+     * @return the name, or null if the nodes are not adjacent or the way has no name.
      */
     public String getPathName(long start, long end) {
-        return pathName.get(start + "to" + end);
+        int v = csr.indexOf(start);
+        int w = csr.indexOf(end);
+        if (v < 0 || w < 0) {
+            return null;
+        }
+        int way = -1;
+        for (int e = csr.edgeStart(v); e < csr.edgeEnd(v); e++) {
+            if (csr.target(e) == w) {
+                way = csr.way(e);
+            }
+        }
+        return way < 0 ? null : wayTable.name(way);
+    }
+
+    /**
+     * Return the WayTable id of the way edge e belongs to.
+     * @param e The edge index.
+     */
+    int edgeWay(int e) {
+        return csr.way(e);
+    }
+
+    /**
+     * Return the deduplicated table of way names and attributes that edgeWay refers to.
+     */
+    WayTable getWayTable() {
+        return wayTable;
     }
 
 
     /**
      * constructor shows how to create and start an XML parser.
      * You do not need to modify this constructor, but you're welcome to do so.
+     * Files ending in .gz or .bz2 are decompressed while they are read. If an up-to-date
+     * binary snapshot of the graph exists next to the XML file it is loaded instead, and
+     * after a successful parse a new snapshot is written for the next start.
      * @param dbPath Path to the XML file to be parsed.
      */
     public GraphDB(String dbPath) {
-        try {
-            File inputFile = new File(dbPath);
-            FileInputStream inputStream = new FileInputStream(inputFile);
-            // GZIPInputStream stream = new GZIPInputStream(inputStream);
+        this(dbPath, true);
+    }
+
+    /**
+     * @param dbPath Path to the XML file to be parsed.
+     * @param useSnapshot Whether to load and write the binary snapshot at dbPath + SNAPSHOT_SUFFIX
+     *                    and the preprocessing results at dbPath + HIERARCHY_SUFFIX and
+     *                    dbPath + LANDMARKS_SUFFIX.
+     */
+    public GraphDB(String dbPath, boolean useSnapshot) {
+        this(dbPath, useSnapshot, 1);
+    }
+
+    /**
+     * @param dbPath Path to the XML file to be parsed.
+     * @param useSnapshot Whether to load and write the snapshot and preprocessing results.
+     * @param minComponentSize Connected components with fewer vertices than this are pruned
+     *                         from the graph, so no query can snap to a small island. The
+     *                         snapshot always holds the unpruned graph.
+     */
+    public GraphDB(String dbPath, boolean useSnapshot, int minComponentSize) {
+        this(dbPath, useSnapshot, minComponentSize, true);
+    }
+
+    /**
+     * @param dbPath Path to the XML file to be parsed.
+     * @param useSnapshot Whether to load and write the snapshot and preprocessing results.
+     * @param minComponentSize Connected components with fewer vertices than this are pruned.
+     * @param hilbertOrder Whether to number the vertices along a Hilbert curve, as every
+     *                     other constructor does, rather than in OSM file order. Snapshots
+     *                     hold the Hilbert order, so they are neither read nor written for a
+     *                     graph in file order.
+     */
+    GraphDB(String dbPath, boolean useSnapshot, int minComponentSize, boolean hilbertOrder) {
+        useSnapshot &= hilbertOrder;
+        preprocessingPath = useSnapshot ? dbPath : null;
+        this.minComponentSize = minComponentSize;
+        File inputFile = new File(dbPath);
+        File snapshotFile = new File(dbPath + SNAPSHOT_SUFFIX);
+        if (useSnapshot && loadSnapshot(snapshotFile, inputFile)) {
+            prepare();
+            return;
+        }
 
-            SAXParserFactory factory = SAXParserFactory.newInstance();
-            SAXParser saxParser = factory.newSAXParser();
-            GraphBuildingHandler gbh = new GraphBuildingHandler(this);
-            saxParser.parse(inputStream, gbh);
+        boolean parsed = false;
+        try {
+            ingestStats = new OSMStreamReader(this).read(inputFile);
+            parsed = true;
 
-        } catch (ParserConfigurationException | SAXException | IOException e) {
+        } catch (XMLStreamException | IOException e) {
             e.printStackTrace();
         }
         clean();
+        freeze(hilbertOrder);
+
+        if (useSnapshot && parsed) {
+            try {
+                GraphSnapshot.write(snapshotFile, inputFile, csr, wayTable, totalNodes.values());
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        prepare();
+    }
+
+    /**
+     * Returns the parse and build throughput of the XML read that built this graph, or null
+     * if it was loaded from a snapshot.
+     */
+    OSMStreamReader.Stats getIngestStats() {
+        return ingestStats;
+    }
+
+    /**
+     * Load the graph from a binary snapshot.
+     * @return false if the snapshot is missing, unreadable or stale.
+     */
+    private boolean loadSnapshot(File snapshotFile, File inputFile) {
+        if (!snapshotFile.exists()) {
+            return false;
+        }
+        try {
+            GraphSnapshot snapshot = GraphSnapshot.read(snapshotFile, inputFile);
+            if (snapshot == null) {
+                return false;
+            }
+            csr = snapshot.graph;
+            wayTable = snapshot.wayTable;
+            for (Node place : snapshot.places) {
+                totalNodes.put(place.getID(), place);
+            }
+            return true;
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            return false;
+        }
     }
 
     /**
@@ -237,22 +422,164 @@ public class GraphDB {
      *  Remove nodes with no connections from the graph.
      *  While this does not guarantee that any two nodes in the remaining graph are connected,
      *  we can reasonably assume this since typically roads are connected.
+     *  Named nodes are kept in totalNodes for location search whether connected or not.
      */
     private void clean() {
-        totalNodes = new LinkedHashMap<>(nodes);
+        totalNodes = new LinkedHashMap<>();
         ArrayList<Long> keys = new ArrayList<> (nodes.keySet());
         for(long id : keys) {
-            if(!nodes.get(id).getConnected())
+            Node node = nodes.get(id);
+            if(node.getName() != null)
+                totalNodes.put(id, node);
+            if(!node.getConnected())
                 removeNode(id);
         }
     }
 
     /**
-     * Returns an iterable of all vertex IDs in the graph.
+     *  Build the CSR adjacency over the cleaned nodes, renumbered along a Hilbert curve unless
+     *  hilbertOrder is false. The node map and the per-node adjacency lists are only needed
+     *  while building, so they are released once the graph is frozen.
+     */
+    private void freeze(boolean hilbertOrder) {
+        csr = CSRGraph.build(nodes);
+        if (hilbertOrder) {
+            csr = csr.hilbertOrdered();
+        }
+        for (Node node : nodes.values()) {
+            node.releaseAdjNodes();
+        }
+        nodes.clear();
+    }
+
+    /**
+     * Label the connected components of the frozen graph, drop the components smaller than
+     * minComponentSize, and build the spatial index and travel times over what remains.
+     */
+    private void prepare() {
+        labelComponents();
+        if (minComponentSize > 1) {
+            boolean[] keep = new boolean[csr.size()];
+            boolean pruned = false;
+            for (int v = 0; v < keep.length; v++) {
+                keep[v] = componentSizes[components[v]] >= minComponentSize;
+                pruned |= !keep[v];
+            }
+            if (pruned) {
+                csr = csr.retain(keep);
+                labelComponents();
+            }
+        }
+        spatialIndex = new SpatialIndex(csr);
+        segmentIndex = new SegmentIndex(this);
+        computeTravelTimes();
+    }
+
+    /**
+     * Number the connected components by breadth-first search. Every segment is stored in
+     * both directions, so these are also the sets of vertices that can reach each other.
+     */
+    private void labelComponents() {
+        int n = csr.size();
+        components = new int[n];
+        Arrays.fill(components, -1);
+        int[] queue = new int[n];
+        int[] sizes = new int[Math.max(1, n)];
+        int count = 0;
+        largestComponent = 0;
+        for (int source = 0; source < n; source++) {
+            if (components[source] >= 0) {
+                continue;
+            }
+            int head = 0;
+            int tail = 0;
+            queue[tail++] = source;
+            components[source] = count;
+            while (head < tail) {
+                int v = queue[head++];
+                for (int e = csr.edgeStart(v); e < csr.edgeEnd(v); e++) {
+                    int w = csr.target(e);
+                    if (components[w] < 0) {
+                        components[w] = count;
+                        queue[tail++] = w;
+                    }
+                }
+            }
+            sizes[count] = tail;
+            if (tail > sizes[largestComponent]) {
+                largestComponent = count;
+            }
+            count++;
+        }
+        componentSizes = Arrays.copyOf(sizes, count);
+    }
+
+    /**
+     * Returns the connected component of the vertex with dense index v. Two vertices are
+     * connected by a path exactly when their components are equal.
+     */
+    int component(int v) {
+        return components[v];
+    }
+
+    /**
+     * Returns the number of connected components.
+     */
+    int componentCount() {
+        return componentSizes.length;
+    }
+
+    /**
+     * Returns the number of vertices in component c.
+     */
+    int componentSize(int c) {
+        return componentSizes[c];
+    }
+
+    /**
+     * Returns the component with the most vertices.
+     */
+    int largestComponent() {
+        return largestComponent;
+    }
+
+    /**
+     * Make closest and closestIndex only return vertices of the largest component, so every
+     * pair of snapped endpoints is connected. Off by default.
+     */
+    void setSnapToLargestComponent(boolean snapToLargestComponent) {
+        this.snapToLargestComponent = snapToLargestComponent;
+    }
+
+    /**
+     * Precompute the travel time of every edge from its length and the speed of its way.
+     */
+    private void computeTravelTimes() {
+        edgeTimes = new double[csr.edgeCount()];
+        maxSpeed = 0;
+        for (int e = 0; e < edgeTimes.length; e++) {
+            double speed = wayTable.speed(csr.way(e));
+            edgeTimes[e] = csr.weight(e) / speed * 3600;
+            maxSpeed = Math.max(maxSpeed, speed);
+        }
+    }
+
+    /**
+     * Returns an iterable of all vertex IDs in the graph, in dense index order.
      * @return An iterable of id's of all vertices in the graph.
      */
     Iterable<Long> vertices() {
-        return nodes.keySet();
+        return new AbstractList<Long>() {
+            @Override
+            public Long get(int v) {
+                return csr.id(v);
+            }
+
+            @Override
+            public int size() {
+                return csr.size();
+            }
+        };
     }
 
     /**
@@ -261,13 +588,191 @@ public class GraphDB {
      * @return An iterable of the ids of the neighbors of v.
      */
     Iterable<Long> adjacent(long v) {
-        ArrayList<Long> id = new ArrayList<>();
-        for(long temp : nodes.get(v).getAdjNode()) {
-            id.add(temp);
+        int index = csr.indexOf(v);
+        ArrayList<Long> id = new ArrayList<>(csr.degree(index));
+        for (int e = csr.edgeStart(index); e < csr.edgeEnd(index); e++) {
+            id.add(csr.id(csr.target(e)));
         }
         return id;
     }
 
+    /**
+     * Returns the number of vertices; dense vertex indices run from 0 to vertexCount() - 1.
+     */
+    int vertexCount() {
+        return csr.size();
+    }
+
+    /**
+     * Returns the dense index of the vertex with the given OSM id, or -1 if there is none.
+     * @param id The OSM id of the vertex.
+     */
+    int vertexIndex(long id) {
+        return csr.indexOf(id);
+    }
+
+    /**
+     * Returns the OSM id of the vertex with the given dense index.
+     * @param v The dense index of the vertex.
+     */
+    long vertexId(int v) {
+        return csr.id(v);
+    }
+
+    /**
+     * Returns the calling thread's search state for this graph, for use by one search at a time.
+     */
+    SearchState searchState() {
+        return searchStates.get();
+    }
+
+    /**
+     * Returns the calling thread's second search state, for the backward half of a
+     * bidirectional search.
+     */
+    SearchState backwardSearchState() {
+        return backwardSearchStates.get();
+    }
+
+    /**
+     * Returns the contraction hierarchy of this graph for the distance metric.
+     */
+    ContractionHierarchy contractionHierarchy() {
+        return contractionHierarchy(Router.Metric.DISTANCE);
+    }
+
+    /**
+     * Returns the contraction hierarchy of this graph for the given metric, loading it from
+     * disk or building it on the first call. Building takes a while on a large graph, so
+     * servers should call this once at startup.
+     */
+    synchronized ContractionHierarchy contractionHierarchy(Router.Metric metric) {
+        if (hierarchies[metric.ordinal()] == null) {
+            hierarchies[metric.ordinal()] = ContractionHierarchy.loadOrBuild(this, metric,
+                    preprocessingFile(metric, HIERARCHY_SUFFIX));
+        }
+        return hierarchies[metric.ordinal()];
+    }
+
+    /**
+     * Returns the landmark tables of this graph for the distance metric.
+     */
+    Landmarks landmarks() {
+        return landmarks(Router.Metric.DISTANCE);
+    }
+
+    /**
+     * Returns the landmark tables of this graph for the ALT heuristic under the given metric,
+     * loading them from disk or building them on the first call.
+     */
+    synchronized Landmarks landmarks(Router.Metric metric) {
+        if (landmarks[metric.ordinal()] == null) {
+            landmarks[metric.ordinal()] = Landmarks.loadOrBuild(this, metric,
+                    preprocessingFile(metric, LANDMARKS_SUFFIX));
+        }
+        return landmarks[metric.ordinal()];
+    }
+
+    private File preprocessingFile(Router.Metric metric, String suffix) {
+        if (preprocessingPath == null) {
+            return null;
+        }
+        String infix = metric == Router.Metric.DISTANCE ? "" : ".time";
+        return new File(preprocessingPath + infix + suffix);
+    }
+
+    /**
+     * Returns a hash of the vertex ids, adjacency and edge costs of the graph under the given
+     * metric, used to tell whether preprocessing results persisted next to the OSM file
+     * still belong to it.
+     */
+    long fingerprint(Router.Metric metric) {
+        long h = 1125899906842597L;
+        for (int v = 0; v < csr.size(); v++) {
+            h = 31 * h + csr.id(v);
+            for (int e = csr.edgeStart(v); e < csr.edgeEnd(v); e++) {
+                h = 31 * h + csr.target(e);
+                h = 31 * h + Double.doubleToLongBits(edgeCost(e, metric));
+            }
+        }
+        return h;
+    }
+
+    /**
+     * Returns the number of directed edges in the graph.
+     */
+    int edgeCount() {
+        return csr.edgeCount();
+    }
+
+    /**
+     * Returns the first outgoing edge of vertex v. Together with edgeEnd and edgeTarget this
+     * walks the neighbours of v without allocating:
+     * for (int e = g.edgeStart(v); e < g.edgeEnd(v); e++) { int w = g.edgeTarget(e); }
+     * @param v The dense index of the vertex.
+     */
+    int edgeStart(int v) {
+        return csr.edgeStart(v);
+    }
+
+    /**
+     * Returns one past the last outgoing edge of vertex v.
+     * @param v The dense index of the vertex.
+     */
+    int edgeEnd(int v) {
+        return csr.edgeEnd(v);
+    }
+
+    /**
+     * Returns the dense index of the vertex edge e points to.
+     * @param e The edge index.
+     */
+    int edgeTarget(int e) {
+        return csr.target(e);
+    }
+
+    /**
+     * Returns the length in miles of edge e, precomputed when the graph was built.
+     * @param e The edge index.
+     */
+    double edgeWeight(int e) {
+        return csr.weight(e);
+    }
+
+    /**
+     * Returns the travel time in seconds of edge e at the speed of its way, precomputed when
+     * the graph was built.
+     * @param e The edge index.
+     */
+    double edgeTime(int e) {
+        return edgeTimes[e];
+    }
+
+    /**
+     * Returns the cost of edge e under the given metric: its length in miles or its travel
+     * time in seconds.
+     * @param e The edge index.
+     */
+    double edgeCost(int e, Router.Metric metric) {
+        return metric == Router.Metric.TIME ? edgeTimes[e] : csr.weight(e);
+    }
+
+    /**
+     * Returns the highest speed of any edge in mph.
+     */
+    double maxSpeed() {
+        return maxSpeed;
+    }
+
+    /**
+     * Returns the length in miles of the i-th outgoing edge of vertex v.
+     * @param v The dense index of the vertex.
+     * @param i The position of the edge among the outgoing edges of v.
+     */
+    double edgeWeight(int v, int i) {
+        return csr.weight(csr.edgeStart(v) + i);
+    }
+
     /**
      * Returns the great-circle distance between vertices v and w in miles.
      * Assumes the lon/lat methods are implemented properly.
@@ -326,16 +831,58 @@ public class GraphDB {
      * @return The id of the node in the graph closest to the target.
      */
     long closest(double lon, double lat) {
-        double closestDis =Double.MAX_VALUE;
-        long closestID = 0;
-        for(long id : nodes.keySet()) {
-            double dis = distance(nodes.get(id).getLon(), nodes.get(id).getLat(), lon, lat);
-            if(dis < closestDis) {
-                closestID = id;
-                closestDis = dis;
-            }
-        }
-        return closestID;
+        int v = closestIndex(lon, lat);
+        return v < 0 ? 0 : csr.id(v);
+    }
+
+    /**
+     * Returns the dense index of the vertex closest to the given longitude and latitude.
+     * Ties go to the smaller OSM id, whatever the vertex numbering. With
+     * setSnapToLargestComponent(true) only vertices of the largest component are considered.
+     * @param lon The target longitude.
+     * @param lat The target latitude.
+     * @return The dense index of the closest vertex, or -1 if the graph has no vertices.
+     */
+    int closestIndex(double lon, double lat) {
+        SpatialIndex.Result result = snapToLargestComponent
+                ? spatialIndex.nearest(lon, lat, v -> components[v] == largestComponent)
+                : spatialIndex.nearest(lon, lat);
+        return result.size() == 0 ? -1 : result.vertex(0);
+    }
+
+    /**
+     * Returns the point on any road segment closest to the given longitude and latitude.
+     * With setSnapToLargestComponent(true) only segments of the largest component are
+     * considered.
+     * @param lon The target longitude.
+     * @param lat The target latitude.
+     * @return The snapped point, or null if the graph has no segments.
+     */
+    SegmentIndex.Snap closestSegment(double lon, double lat) {
+        return snapToLargestComponent
+                ? segmentIndex.nearest(lon, lat, v -> components[v] == largestComponent)
+                : segmentIndex.nearest(lon, lat);
+    }
+
+    /**
+     * Returns the k vertices closest to the given longitude and latitude, nearest first.
+     * @param lon The target longitude.
+     * @param lat The target latitude.
+     * @param k The number of vertices wanted.
+     */
+    SpatialIndex.Result kNearest(double lon, double lat, int k) {
+        return spatialIndex.kNearest(lon, lat, k);
+    }
+
+    /**
+     * Returns all vertices within radius miles of the given longitude and latitude, nearest
+     * first.
+     * @param lon The target longitude.
+     * @param lat The target latitude.
+     * @param radius The search radius in miles.
+     */
+    SpatialIndex.Result withinRadius(double lon, double lat, double radius) {
+        return spatialIndex.withinRadius(lon, lat, radius);
     }
 
     /**
@@ -344,7 +891,7 @@ public class GraphDB {
      * @return The longitude of the vertex.
      */
     double lon(long v) {
-        return nodes.get(v).getLon();
+        return csr.lon(csr.indexOf(v));
     }
 
     /**
@@ -353,16 +900,73 @@ public class GraphDB {
      * @return The latitude of the vertex.
      */
     double lat(long v) {
-        return nodes.get(v).getLat();
+        return csr.lat(csr.indexOf(v));
+    }
+
+    /**
+     * Gets the longitude of a vertex by dense index.
+     * @param v The dense index of the vertex.
+     */
+    double lonAt(int v) {
+        return csr.lon(v);
+    }
+
+    /**
+     * Gets the latitude of a vertex by dense index.
+     * @param v The dense index of the vertex.
+     */
+    double latAt(int v) {
+        return csr.lat(v);
     }
 
     /**
-     * return the nodes
+     * Returns the great-circle distance in miles between the vertices with dense indices v and w.
+     */
+    double distanceAt(int v, int w) {
+        return distance(csr.lon(v), csr.lat(v), csr.lon(w), csr.lat(w));
+    }
+
+    /**
+     * Returns the great-circle distance in miles between the vertices with dense indices v and
+     * w, using the precomputed cosines of their latitudes. This is the haversine formula with
+     * two sines, a square root and an arcsine instead of the full set of trigonometric calls,
+     * and is meant for the A* heuristic where it is evaluated for every queued vertex.
+     */
+    double estimateAt(int v, int w) {
+        double sinDphi = Math.sin(Math.toRadians(csr.lat(w) - csr.lat(v)) / 2.0);
+        double sinDlambda = Math.sin(Math.toRadians(csr.lon(w) - csr.lon(v)) / 2.0);
+        double a = sinDphi * sinDphi + csr.cosLat(v) * csr.cosLat(w) * sinDlambda * sinDlambda;
+        return 3963 * 2 * Math.asin(Math.min(1.0, Math.sqrt(a)));
+    }
+
+    /**
+     * Returns a lower bound on the cost under the given metric of any path between the
+     * vertices with dense indices v and w: the great-circle distance, or the time it takes
+     * to cover it at the highest speed in the graph.
+     */
+    double estimateAt(int v, int w, Router.Metric metric) {
+        double miles = estimateAt(v, w);
+        return metric == Router.Metric.TIME ? miles / maxSpeed * 3600 : miles;
+    }
+
+    /**
+     * Returns the initial bearing in degrees between the vertices with dense indices v and w.
+     */
+    double bearingAt(int v, int w) {
+        return bearing(csr.lon(v), csr.lat(v), csr.lon(w), csr.lat(w));
+    }
+
+    /**
+     * return the nodes while the graph is being built; the map is emptied once the graph is
+     * frozen, after which vertices() and the index-based accessors describe the graph.
      */
     public LinkedHashMap<Long, Node> getNodes() {
         return nodes;
     }
 
+    /**
+     * return the named nodes, which are the locations search can find.
+     */
     public LinkedHashMap<Long, Node> getTotalNodes() {
         return totalNodes;
     }
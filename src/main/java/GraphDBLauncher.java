@@ -10,7 +10,8 @@ public class GraphDBLauncher {
     private static final String OSM_DB_PATH = "src/main/resources/berkeley-2018.osm.xml";
 
     public static void main(String[] args) {
-        GraphDB g = new GraphDB(OSM_DB_PATH);
+        GraphDB g = new GraphDB(OSM_DB_PATH, false);
+        System.out.println(g.getIngestStats());
 
         Iterable<Long> verticesIterable = g.vertices();
 
@@ -0,0 +1,137 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Compact binary snapshot of a built GraphDB, so the server can skip the XML parse on
+ * restart. The file is big-endian and laid out as
+ *
+ * <pre>
+ *     magic "BMAPGRPH", format version,
+ *     length and last-modified time of the OSM file it was built from,
+ *     CSRGraph (coordinates, adjacency, edge weights, edge ways),
+ *     WayTable (way names and attributes),
+ *     named locations (id, lon, lat, name),
+ *     CRC32 of everything before it.
+ * </pre>
+ *
+ * A snapshot is only used when its version matches, its checksum is intact and the source
+ * file still has the recorded length and modification time; otherwise read returns null and
+ * the caller should rebuild from XML. Snapshots are written to a temporary file and moved
+ * into place, so a concurrently starting server never sees a half-written file.
+ */
+class GraphSnapshot {
+    private static final long MAGIC = 0x424d415047525048L;
+    private static final int VERSION = 3;
+    private static final int HEADER_BYTES = Long.BYTES + Integer.BYTES + 2 * Long.BYTES;
+
+    final CSRGraph graph;
+    final WayTable wayTable;
+    final List<GraphDB.Node> places;
+
+    private GraphSnapshot(CSRGraph graph, WayTable wayTable, List<GraphDB.Node> places) {
+        this.graph = graph;
+        this.wayTable = wayTable;
+        this.places = places;
+    }
+
+    /**
+     * Write a snapshot of the given graph to file.
+     * @param file where to write the snapshot.
+     * @param source the OSM file the graph was built from.
+     * @param graph the frozen road graph.
+     * @param wayTable the way names and attributes edges refer to.
+     * @param places the named locations used by search.
+     */
+    static void write(File file, File source, CSRGraph graph, WayTable wayTable,
+                      Collection<GraphDB.Node> places) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        CRC32 crc = new CRC32();
+        try (DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16), crc))) {
+            out.writeLong(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(source.length());
+            out.writeLong(source.lastModified());
+            graph.writeTo(out);
+            wayTable.writeTo(out);
+            out.writeInt(places.size());
+            for (GraphDB.Node place : places) {
+                out.writeLong(place.getID());
+                out.writeDouble(place.getLon());
+                out.writeDouble(place.getLat());
+                WayTable.writeString(out, place.getName());
+            }
+            out.writeInt((int) crc.getValue());
+        }
+        try {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Memory-map and read a snapshot.
+     * @param file the snapshot file.
+     * @param source the OSM file the snapshot should have been built from. If it does not
+     *               exist the snapshot is trusted as is, so deployments can ship it alone.
+     * @return the snapshot, or null if it is from another format version, corrupt, or stale.
+     */
+    static GraphSnapshot read(File file, File source) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES + Integer.BYTES || size > Integer.MAX_VALUE) {
+                return null;
+            }
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (in.getLong() != MAGIC || in.getInt() != VERSION) {
+                return null;
+            }
+            long length = in.getLong();
+            long modified = in.getLong();
+            if (source.exists() && (length != source.length() || modified != source.lastModified())) {
+                return null;
+            }
+
+            int end = (int) size - Integer.BYTES;
+            ByteBuffer body = in.duplicate();
+            body.position(0);
+            body.limit(end);
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            if ((int) crc.getValue() != in.getInt(end)) {
+                return null;
+            }
+
+            CSRGraph graph = CSRGraph.readFrom(in);
+            WayTable wayTable = WayTable.readFrom(in);
+            int count = in.getInt();
+            List<GraphDB.Node> places = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                long id = in.getLong();
+                double lon = in.getDouble();
+                double lat = in.getDouble();
+                GraphDB.Node place = new GraphDB.Node(id, lon, lat);
+                place.setName(WayTable.readString(in));
+                places.add(place);
+            }
+            return new GraphSnapshot(graph, wayTable, places);
+        }
+    }
+}
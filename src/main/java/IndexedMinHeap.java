@@ -0,0 +1,188 @@
+import java.util.Arrays;
+
+/**
+ * Binary min-heap of vertex indices keyed by double priorities, with decrease-key. The heap
+ * remembers where every vertex sits, so a vertex is never queued twice and changing its key
+ * moves it in place instead of inserting a duplicate. All storage is allocated up front for
+ * a fixed number of vertices, and clear() only touches the vertices still queued, so one heap
+ * can serve any number of searches without allocating.
+ */
+class IndexedMinHeap {
+//    heap[i] is the vertex in slot i, keys[i] its priority
+    private final int[] heap;
+    private final double[] keys;
+
+//    slot of every vertex, or -1 if it is not queued
+    private final int[] pos;
+
+    private int size;
+
+    /**
+     * @param capacity the number of vertices; vertices are 0 .. capacity - 1.
+     */
+    IndexedMinHeap(int capacity) {
+        heap = new int[capacity];
+        keys = new double[capacity];
+        pos = new int[capacity];
+        Arrays.fill(pos, -1);
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean contains(int v) {
+        return pos[v] >= 0;
+    }
+
+    /**
+     * Queue v with the given key, or lower its key if it is already queued with a larger one.
+     * @return true if v was inserted or its key decreased.
+     */
+    boolean push(int v, double key) {
+        int i = pos[v];
+        if (i < 0) {
+            i = size++;
+            heap[i] = v;
+            keys[i] = key;
+            pos[v] = i;
+        } else if (key < keys[i]) {
+            keys[i] = key;
+        } else {
+            return false;
+        }
+        siftUp(i);
+        return true;
+    }
+
+    /**
+     * Queue v with the given key, or change its key to the given one if it is already queued,
+     * whether that raises or lowers it.
+     */
+    void update(int v, double key) {
+        int i = pos[v];
+        if (i < 0) {
+            push(v, key);
+            return;
+        }
+        double old = keys[i];
+        keys[i] = key;
+        if (key < old) {
+            siftUp(i);
+        } else {
+            siftDown(i);
+        }
+    }
+
+    /**
+     * Remove v from the heap if it is queued.
+     * @return true if v was queued.
+     */
+    boolean remove(int v) {
+        int i = pos[v];
+        if (i < 0) {
+            return false;
+        }
+        double old = keys[i];
+        pos[v] = -1;
+        size--;
+        if (i < size) {
+            move(size, i);
+            if (keys[i] < old) {
+                siftUp(i);
+            } else {
+                siftDown(i);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the vertex with the smallest key, without removing it.
+     */
+    int peek() {
+        return heap[0];
+    }
+
+    /**
+     * @return the smallest key.
+     */
+    double peekKey() {
+        return keys[0];
+    }
+
+    /**
+     * Remove and return the vertex with the smallest key.
+     */
+    int pop() {
+        int top = heap[0];
+        pos[top] = -1;
+        size--;
+        if (size > 0) {
+            heap[0] = heap[size];
+            keys[0] = keys[size];
+            pos[heap[0]] = 0;
+            siftDown(0);
+        }
+        return top;
+    }
+
+    /**
+     * Remove every queued vertex, in time proportional to how many are left.
+     */
+    void clear() {
+        for (int i = 0; i < size; i++) {
+            pos[heap[i]] = -1;
+        }
+        size = 0;
+    }
+
+    private void siftUp(int i) {
+        int v = heap[i];
+        double key = keys[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (keys[parent] <= key) {
+                break;
+            }
+            move(parent, i);
+            i = parent;
+        }
+        heap[i] = v;
+        keys[i] = key;
+        pos[v] = i;
+    }
+
+    private void siftDown(int i) {
+        int v = heap[i];
+        double key = keys[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && keys[child + 1] < keys[child]) {
+                child++;
+            }
+            if (keys[child] >= key) {
+                break;
+            }
+            move(child, i);
+            i = child;
+        }
+        heap[i] = v;
+        keys[i] = key;
+        pos[v] = i;
+    }
+
+//    copy the entry in slot from to slot to
+    private void move(int from, int to) {
+        heap[to] = heap[from];
+        keys[to] = keys[from];
+        pos[heap[to]] = to;
+    }
+}
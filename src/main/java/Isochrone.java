@@ -0,0 +1,172 @@
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The part of the road graph reachable from one vertex within a budget, under the distance
+ * or travel time metric. It is found with a single Dijkstra search that stops as soon as the
+ * smallest queued cost exceeds the budget, so a service area costs no more than one route
+ * query of the same radius. The search runs on the caller's reusable SearchState, and the
+ * result keeps the reached vertices and their costs in primitive arrays, in order of cost.
+ *
+ * Two summaries are derived from the reached vertices for drawing: a grid of the cells that
+ * contain a reached vertex, each with the cheapest cost inside it, and the convex hull of
+ * the reached vertices as a polygon.
+ */
+public class Isochrone {
+    private final GraphDB g;
+    private final double budget;
+    private final Router.Metric metric;
+
+//    dense indices of the reached vertices and their costs, cheapest first
+    private final int[] vertices;
+    private final double[] costs;
+
+    private Isochrone(GraphDB g, double budget, Router.Metric metric, int[] vertices,
+                      double[] costs) {
+        this.g = g;
+        this.budget = budget;
+        this.metric = metric;
+        this.vertices = vertices;
+        this.costs = costs;
+    }
+
+    /**
+     * Find every vertex whose cheapest path from source costs at most budget.
+     * @param g The graph to search.
+     * @param state Search state for g, reset by this call.
+     * @param source The dense index of the start vertex, or -1 to reach nothing.
+     * @param budget The largest cost to include, in miles or seconds depending on metric.
+     * @param metric What the costs measure.
+     */
+    static Isochrone compute(GraphDB g, SearchState state, int source, double budget,
+                             Router.Metric metric) {
+        if (source < 0) {
+            return new Isochrone(g, budget, metric, new int[0], new double[0]);
+        }
+        state.reset();
+        IndexedMinHeap heap = state.heap;
+        state.update(source, 0.0, -1);
+        heap.push(source, 0.0);
+
+        int[] vertices = new int[64];
+        double[] costs = new double[64];
+        int size = 0;
+        while (!heap.isEmpty() && heap.peekKey() <= budget) {
+            int v = heap.pop();
+            state.settle(v);
+            double dv = state.dist(v);
+            if (size == vertices.length) {
+                vertices = Arrays.copyOf(vertices, size * 2);
+                costs = Arrays.copyOf(costs, size * 2);
+            }
+            vertices[size] = v;
+            costs[size] = dv;
+            size++;
+            for (int e = g.edgeStart(v); e < g.edgeEnd(v); e++) {
+                int w = g.edgeTarget(e);
+                double d = dv + g.edgeCost(e, metric);
+                if (d <= budget && d < state.dist(w)) {
+                    state.update(w, d, v);
+                    heap.push(w, d);
+                }
+            }
+        }
+        return new Isochrone(g, budget, metric, Arrays.copyOf(vertices, size),
+                Arrays.copyOf(costs, size));
+    }
+
+    public double getBudget() {
+        return budget;
+    }
+
+    public Router.Metric getMetric() {
+        return metric;
+    }
+
+    /**
+     * @return the number of reached vertices.
+     */
+    public int size() {
+        return vertices.length;
+    }
+
+    /**
+     * @return the OSM id of the i-th reached vertex, in order of cost.
+     */
+    public long vertex(int i) {
+        return g.vertexId(vertices[i]);
+    }
+
+    /**
+     * @return the cost of the cheapest path to the i-th reached vertex.
+     */
+    public double cost(int i) {
+        return costs[i];
+    }
+
+    public double lon(int i) {
+        return g.lonAt(vertices[i]);
+    }
+
+    public double lat(int i) {
+        return g.latAt(vertices[i]);
+    }
+
+    /**
+     * Summarize the reached vertices on a grid of square cells aligned to multiples of
+     * cellSize degrees.
+     * @param cellSize The width and height of a cell in degrees.
+     * @return one {west lon, south lat, cheapest cost} triple per cell that contains a reached
+     * vertex, in order of that cost.
+     */
+    public double[][] cells(double cellSize) {
+        Map<Long, double[]> cells = new LinkedHashMap<>();
+        for (int i = 0; i < vertices.length; i++) {
+            long col = (long) Math.floor(lon(i) / cellSize);
+            long row = (long) Math.floor(lat(i) / cellSize);
+            Long key = (col << 32) ^ (row & 0xffffffffL);
+            if (!cells.containsKey(key)) {
+                cells.put(key, new double[]{col * cellSize, row * cellSize, costs[i]});
+            }
+        }
+        return cells.values().toArray(new double[0][]);
+    }
+
+    /**
+     * @return the convex hull of the reached vertices as {lon, lat} points in counterclockwise
+     * order, without repeating the first point.
+     */
+    public double[][] hull() {
+        int n = vertices.length;
+        double[][] points = new double[n][];
+        for (int i = 0; i < n; i++) {
+            points[i] = new double[]{lon(i), lat(i)};
+        }
+        Arrays.sort(points, (a, b) -> a[0] != b[0] ? Double.compare(a[0], b[0])
+                : Double.compare(a[1], b[1]));
+        if (n < 3) {
+            return points;
+        }
+//        Andrew's monotone chain: lower hull left to right, then upper hull right to left
+        double[][] hull = new double[2 * n][];
+        int k = 0;
+        for (int i = 0; i < n; i++) {
+            while (k >= 2 && cross(hull[k - 2], hull[k - 1], points[i]) <= 0) {
+                k--;
+            }
+            hull[k++] = points[i];
+        }
+        for (int i = n - 2, lower = k + 1; i >= 0; i--) {
+            while (k >= lower && cross(hull[k - 2], hull[k - 1], points[i]) <= 0) {
+                k--;
+            }
+            hull[k++] = points[i];
+        }
+        return Arrays.copyOf(hull, k - 1);
+    }
+
+    private static double cross(double[] o, double[] a, double[] b) {
+        return (a[0] - o[0]) * (b[1] - o[1]) - (a[1] - o[1]) * (b[0] - o[0]);
+    }
+}
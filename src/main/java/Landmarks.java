@@ -0,0 +1,298 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Landmark distance tables for the ALT lower bound (A*, landmarks, triangle inequality).
+ * For every landmark L the shortest path distance d(L, v) to every vertex v is precomputed,
+ * and by the triangle inequality |d(L, t) - d(L, v)| never exceeds the distance from v to t.
+ * The largest such bound over all landmarks follows the road network around rivers and hills
+ * instead of cutting straight across them, so it is usually much tighter than the
+ * great-circle distance.
+ *
+ * Every road segment is stored in both directions with the same weight, so distances from a
+ * landmark equal distances to it and one table per landmark serves as both the forward and
+ * the backward table.
+ *
+ * Landmarks are chosen by farthest selection: starting from the vertex farthest from the
+ * centre of the map, each next landmark is the vertex farthest from all landmarks chosen so
+ * far. Candidates are restricted to the largest connected component, so no landmark ends up
+ * in a disconnected fragment where it would bound almost no query.
+ */
+class Landmarks {
+    private static final long MAGIC = 0x424d41504c4d4bL;
+    private static final int VERSION = 3;
+    private static final int HEADER_BYTES = Long.BYTES + Integer.BYTES + Long.BYTES
+            + 2 * Integer.BYTES;
+
+//    number of landmarks built by default
+    static final int DEFAULT_COUNT = 16;
+
+//    fingerprint of the graph the tables were built for
+    private final long fingerprint;
+
+    private final int[] landmarks;
+
+//    number of vertices of the graph the tables were built for
+    private final int vertexCount;
+
+//    distance from landmark i to vertex v is table[v * landmarks.length + i],
+//    infinite if unreachable
+    private final double[] table;
+
+    private Landmarks(long fingerprint, int[] landmarks, int vertexCount, double[] table) {
+        this.fingerprint = fingerprint;
+        this.landmarks = landmarks;
+        this.vertexCount = vertexCount;
+        this.table = table;
+    }
+
+    /**
+     * Load the landmark tables for g from file if they were built for this graph and metric,
+     * otherwise build them and write them to file for next time.
+     * @param metric The edge costs the tables are built for.
+     * @param file where the tables are persisted, or null to always build.
+     */
+    static Landmarks loadOrBuild(GraphDB g, Router.Metric metric, File file) {
+        if (file != null && file.exists()) {
+            try {
+                Landmarks landmarks = read(file);
+                if (landmarks != null && landmarks.fingerprint == g.fingerprint(metric)
+                        && landmarks.vertexCount == g.vertexCount()) {
+                    return landmarks;
+                }
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+        Landmarks landmarks = build(g, metric, DEFAULT_COUNT);
+        if (file != null) {
+            try {
+                landmarks.write(file);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return landmarks;
+    }
+
+    /**
+     * Choose k landmarks and compute their distance tables, one Dijkstra per landmark in
+     * parallel.
+     * @param metric The edge costs to measure distances in.
+     */
+    static Landmarks build(GraphDB g, Router.Metric metric, int k) {
+        int n = g.vertexCount();
+        if (n == 0) {
+            return new Landmarks(g.fingerprint(metric), new int[0], 0, new double[0]);
+        }
+        int[] chosen = select(g, k);
+        double[][] columns = new double[chosen.length][];
+        IntStream.range(0, chosen.length).parallel().forEach(i ->
+                columns[i] = dijkstra(g, metric, new SearchState(n), chosen[i]));
+
+        double[] table = new double[n * chosen.length];
+        for (int i = 0; i < chosen.length; i++) {
+            for (int v = 0; v < n; v++) {
+                table[v * chosen.length + i] = columns[i][v];
+            }
+        }
+        return new Landmarks(g.fingerprint(metric), chosen, n, table);
+    }
+
+    /**
+     * Farthest selection by great-circle distance over the vertices of the largest component.
+     */
+    private static int[] select(GraphDB g, int k) {
+        int n = g.vertexCount();
+        int component = g.largestComponent();
+        double minLon = Double.POSITIVE_INFINITY, maxLon = Double.NEGATIVE_INFINITY;
+        double minLat = Double.POSITIVE_INFINITY, maxLat = Double.NEGATIVE_INFINITY;
+        for (int v = 0; v < n; v++) {
+            if (g.component(v) == component) {
+                minLon = Math.min(minLon, g.lonAt(v));
+                maxLon = Math.max(maxLon, g.lonAt(v));
+                minLat = Math.min(minLat, g.latAt(v));
+                maxLat = Math.max(maxLat, g.latAt(v));
+            }
+        }
+        double centreLon = (minLon + maxLon) / 2;
+        double centreLat = (minLat + maxLat) / 2;
+
+//        great-circle distance from every candidate to the nearest landmark chosen so far
+        double[] nearest = new double[n];
+        for (int v = 0; v < n; v++) {
+            nearest[v] = g.component(v) == component
+                    ? GraphDB.distance(g.lonAt(v), g.latAt(v), centreLon, centreLat) : -1;
+        }
+        int[] chosen = new int[k];
+        int count = 0;
+        while (count < k) {
+            int next = 0;
+            for (int v = 1; v < n; v++) {
+                if (nearest[v] > nearest[next]) {
+                    next = v;
+                }
+            }
+            if (nearest[next] <= 0) {
+                break;
+            }
+            int landmark = next;
+            chosen[count++] = landmark;
+            IntStream.range(0, n).parallel().forEach(v -> {
+                if (nearest[v] > 0) {
+                    nearest[v] = Math.min(nearest[v], g.estimateAt(v, landmark));
+                }
+            });
+        }
+        return Arrays.copyOf(chosen, count);
+    }
+
+//    distances from source to every vertex, infinite for those it cannot reach
+    private static double[] dijkstra(GraphDB g, Router.Metric metric, SearchState state,
+                                     int source) {
+        state.reset();
+        state.update(source, 0.0, -1);
+        state.heap.push(source, 0.0);
+        while (!state.heap.isEmpty()) {
+            int v = state.heap.pop();
+            double dv = state.dist(v);
+            for (int e = g.edgeStart(v); e < g.edgeEnd(v); e++) {
+                int w = g.edgeTarget(e);
+                double d = dv + g.edgeCost(e, metric);
+                if (d < state.dist(w)) {
+                    state.update(w, d, v);
+                    state.heap.push(w, d);
+                }
+            }
+        }
+        double[] dist = new double[state.size()];
+        for (int v = 0; v < dist.length; v++) {
+            dist[v] = state.dist(v);
+        }
+        return dist;
+    }
+
+    /**
+     * @return the number of landmarks.
+     */
+    int size() {
+        return landmarks.length;
+    }
+
+    /**
+     * @return the dense index of landmark i.
+     */
+    int landmark(int i) {
+        return landmarks[i];
+    }
+
+    /**
+     * Returns a lower bound on the road distance between the vertices with dense indices v
+     * and t: the largest |d(L, t) - d(L, v)| over the landmarks that reach both.
+     */
+    double lowerBound(int v, int t) {
+        int k = landmarks.length;
+        int vi = v * k;
+        int ti = t * k;
+        double bound = 0;
+        for (int i = 0; i < k; i++) {
+            double dv = table[vi + i];
+            double dt = table[ti + i];
+            if (dv < Double.POSITIVE_INFINITY && dt < Double.POSITIVE_INFINITY) {
+                bound = Math.max(bound, Math.abs(dt - dv));
+            }
+        }
+        return bound;
+    }
+
+    /**
+     * Write the tables to file, followed by a CRC32 of everything before it, through a
+     * temporary file that is moved into place.
+     */
+    void write(File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        CRC32 crc = new CRC32();
+        try (DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16), crc))) {
+            out.writeLong(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(fingerprint);
+            out.writeInt(landmarks.length);
+            out.writeInt(vertexCount);
+            for (int landmark : landmarks) {
+                out.writeInt(landmark);
+            }
+            for (double d : table) {
+                out.writeDouble(d);
+            }
+            out.writeInt((int) crc.getValue());
+        }
+        try {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Read tables written by write.
+     * @return the tables, or null if the file has another format version, another size than
+     * its header implies, a bad checksum or a landmark that is not a vertex.
+     */
+    static Landmarks read(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES + Integer.BYTES || size > Integer.MAX_VALUE) {
+                return null;
+            }
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (in.getLong() != MAGIC || in.getInt() != VERSION) {
+                return null;
+            }
+            long fingerprint = in.getLong();
+            int k = in.getInt();
+            int n = in.getInt();
+            if (k < 0 || n < 0 || size != HEADER_BYTES + (long) k * Integer.BYTES
+                    + (long) n * k * Double.BYTES + Integer.BYTES) {
+                return null;
+            }
+
+            int end = (int) size - Integer.BYTES;
+            ByteBuffer body = in.duplicate();
+            body.position(0);
+            body.limit(end);
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            if ((int) crc.getValue() != in.getInt(end)) {
+                return null;
+            }
+
+            int[] landmarks = new int[k];
+            in.asIntBuffer().get(landmarks);
+            in.position(in.position() + k * Integer.BYTES);
+            for (int landmark : landmarks) {
+                if (landmark < 0 || landmark >= n) {
+                    return null;
+                }
+            }
+            double[] table = new double[n * k];
+            in.asDoubleBuffer().get(table);
+            return new Landmarks(fingerprint, landmarks, n, table);
+        }
+    }
+}
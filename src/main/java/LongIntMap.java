@@ -0,0 +1,106 @@
+/**
+ * Open-addressing hash map from primitive long keys to primitive int values, used to turn
+ * OSM ids into dense vertex indices without boxing. Collisions are resolved by linear probing
+ * and the table is kept at most half full, so a lookup touches one or two slots on average.
+ * Only non-negative values can be stored; get returns -1 for a missing key.
+ */
+class LongIntMap {
+    private static final int MIN_CAPACITY = 16;
+
+//    keys of the occupied slots
+    private long[] keys;
+
+//    value + 1 of every slot, so that 0 marks an empty slot without reserving a key
+    private int[] slots;
+
+    private int size;
+    private int mask;
+
+    LongIntMap() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * @param expected number of keys the map should hold without resizing.
+     */
+    LongIntMap(int expected) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < expected * 2) {
+            capacity <<= 1;
+        }
+        keys = new long[capacity];
+        slots = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * Associate value with key, replacing any previous value.
+     * @param key the key.
+     * @param value a non-negative value.
+     */
+    void put(long key, int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("negative value " + value);
+        }
+        int i = slot(key);
+        if (slots[i] == 0) {
+            if ((size + 1) * 2 > keys.length) {
+                grow();
+                i = slot(key);
+            }
+            keys[i] = key;
+            size++;
+        }
+        slots[i] = value + 1;
+    }
+
+    /**
+     * @param key the key.
+     * @return the value stored for key, or -1 if there is none.
+     */
+    int get(long key) {
+        return slots[slot(key)] - 1;
+    }
+
+    boolean containsKey(long key) {
+        return slots[slot(key)] != 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+//    index of the slot holding key, or of the empty slot where it would go
+    private int slot(long key) {
+        int i = hash(key) & mask;
+        while (slots[i] != 0 && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldSlots = slots;
+        keys = new long[oldKeys.length * 2];
+        slots = new int[oldSlots.length * 2];
+        mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldSlots[i] != 0) {
+                int j = slot(oldKeys[i]);
+                keys[j] = oldKeys[i];
+                slots[j] = oldSlots[i];
+            }
+        }
+    }
+
+//    murmur3 finalizer; OSM ids are mostly sequential, so the low bits need mixing
+    private static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+}
@@ -3,7 +3,6 @@ import java.awt.Graphics2D;
 import java.awt.BasicStroke;
 import java.awt.Color;
 import java.io.ByteArrayOutputStream;
-import java.io.File;
 import java.util.*;
 import java.awt.image.BufferedImage;
 import javax.imageio.ImageIO;
@@ -12,6 +11,7 @@ import java.io.IOException;
 
 /* Maven is used to pull in these dependencies. */
 import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
 
 import static spark.Spark.*;
 
@@ -35,6 +35,8 @@ public class MapServer {
     public static final int TILE_SIZE = 256;
     /** HTTP failed response. */
     private static final int HALT_RESPONSE = 403;
+    /** HTTP response for requests larger than the server accepts. */
+    private static final int BAD_REQUEST_RESPONSE = 400;
     /** Route stroke information: typically roads are not more than 5px wide. */
     public static final float ROUTE_STROKE_WIDTH_PX = 5.0f;
     /** Route stroke information: Cyan with half transparency. */
@@ -64,6 +66,25 @@ public class MapServer {
      **/
     private static final String[] REQUIRED_ROUTE_REQUEST_PARAMS = {"start_lat", "start_lon",
         "end_lat", "end_lon"};
+    /**
+     * Each isochrone request to the server will have the following parameters
+     * as keys in the params map.<br>
+     * lon : start point longitude,<br> lat : start point latitude,<br>
+     * budget : miles, or minutes with metric=time.
+     **/
+    private static final String[] REQUIRED_ISOCHRONE_REQUEST_PARAMS = {"lon", "lat", "budget"};
+    /** The deepest zoom level of the tile images. */
+    private static final int MAX_DEPTH = 7;
+    /** Default side of the isochrone summary grid cells in degrees. */
+    private static final double ISOCHRONE_CELL_SIZE = 0.002;
+    /** Most sources, and most destinations, a distance matrix request may have. */
+    private static final int MAX_MATRIX_LOCATIONS = 100;
+    /** Most coordinate pairs a batch routing request may have. */
+    private static final int MAX_BATCH_PAIRS = 1000;
+    /** Largest isochrone budget in miles, well beyond the width of the map. */
+    private static final double MAX_ISOCHRONE_MILES = 20;
+    /** Largest isochrone budget in minutes with metric=time. */
+    private static final double MAX_ISOCHRONE_MINUTES = 60;
 
     /**
      * The result of rastering must be a map containing all of the
@@ -74,7 +95,17 @@ public class MapServer {
 
     private static Rasterer rasterer;
     private static GraphDB graph;
-    private static List<Long> route = new LinkedList<>();
+    /** Sessions keep their route this long after their last request. */
+    private static final long ROUTE_TTL_MILLIS = 30 * 60 * 1000;
+    /** At most this many sessions keep a route; the least recently used are dropped. */
+    private static final int ROUTE_SESSIONS = 10000;
+    private static RouteStore routes;
+    /** Routes cached by snapped endpoints, bounded by this many path vertices in total. */
+    private static final int ROUTE_CACHE_VERTICES = 1 << 20;
+    private static RouteCache routeCache;
+    /** Decoded tiles are cached up to this many bytes of pixel data. */
+    private static final long TILE_CACHE_BYTES = 256L << 20;
+    private static TileCache tileCache;
     /* Define any static variables here. Do not define any instance variables of MapServer. */
     private static Autocomplete auto;
 
@@ -85,6 +116,13 @@ public class MapServer {
      **/
     public static void initialize() {
         graph = new GraphDB(OSM_DB_PATH);
+        routeCache = new RouteCache(ROUTE_CACHE_VERTICES);
+        routes = new RouteStore(ROUTE_TTL_MILLIS, ROUTE_SESSIONS);
+        tileCache = new TileCache(IMG_ROOT, TILE_CACHE_BYTES);
+        if (graph.getIngestStats() != null) {
+            System.out.println(graph.getIngestStats());
+        }
+        graph.contractionHierarchy();
         rasterer = new Rasterer();
         auto = new Autocomplete(graph.getTotalNodes());
     }
@@ -113,7 +151,8 @@ public class MapServer {
             boolean rasterSuccess = validateRasteredImgParams(rasteredImgParams);
 
             if (rasterSuccess) {
-                writeImagesToOutputStream(rasteredImgParams, os);
+                writeImagesToOutputStream(rasteredImgParams, os,
+                        routes.get(req.queryParams("session")));
                 String encodedImage = Base64.getEncoder().encodeToString(os.toByteArray());
                 rasteredImgParams.put("b64_encoded_image_data", encodedImage);
             }
@@ -123,24 +162,162 @@ public class MapServer {
             return gson.toJson(rasteredImgParams);
         });
 
-        /* Define the routing endpoint for HTTP GET requests. */
+        /* Define the routing endpoint for HTTP GET requests. The route becomes the current
+         * route of the session given by the optional session parameter, or of a new session;
+         * the response carries the session token for the /raster and /clear_route calls. */
         get("/route", (req, res) -> {
-            HashMap<String, Double> params =
-                    getRequestParams(req, REQUIRED_ROUTE_REQUEST_PARAMS);
-            route = Router.shortestPath(graph, params.get("start_lon"), params.get("start_lat"),
-                    params.get("end_lon"), params.get("end_lat"));
-            String directions = getDirectionsText();
+            SearchStats stats = new SearchStats();
+            RouteCache.Entry cached = findRoute(req, stats);
+            String session = routes.put(req.queryParams("session"),
+                    new RouteGeometry(graph, cached.getPath()));
+            String directions = getDirectionsText(cached.getDirections());
             Map<String, Object> routeParams = new HashMap<>();
-            routeParams.put("routing_success", !route.isEmpty());
+            routeParams.put("session", session);
+            routeParams.put("routing_success", !cached.getPath().isEmpty());
             routeParams.put("directions_success", directions.length() > 0);
             routeParams.put("directions", directions);
+            routeParams.put("settled_forward", stats.getSettledForward());
+            routeParams.put("settled_backward", stats.getSettledBackward());
             Gson gson = new Gson();
             return gson.toJson(routeParams);
         });
 
-        /* Define the API endpoint for clearing the current route. */
+        /* Define the route geometry endpoint for HTTP GET requests. It takes the parameters of
+         * /route and returns the route as an encoded polyline with the length of every leg,
+         * simplified for zoom depth d when given depth=d. */
+        get("/route_geometry", (req, res) -> {
+            RouteCache.Entry cached = findRoute(req, null);
+            RouteGeometry geometry = new RouteGeometry(graph, cached.getPath());
+            int[] points = geometry.allPoints();
+            if (req.queryParams("depth") != null) {
+                int depth = 0;
+                try {
+                    depth = Integer.parseInt(req.queryParams("depth"));
+                } catch (NumberFormatException e) {
+                    halt(HALT_RESPONSE, "Incorrect parameters - provide numbers.");
+                }
+                if (depth < 0 || depth > MAX_DEPTH) {
+                    halt(HALT_RESPONSE, "Incorrect parameters - depth must be 0 to "
+                            + MAX_DEPTH + ".");
+                }
+                double tiles = TILE_SIZE * Math.pow(2, depth);
+                points = geometry.simplified(depth, (ROOT_LRLON - ROOT_ULLON) / tiles,
+                        (ROOT_ULLAT - ROOT_LRLAT) / tiles);
+            }
+            Map<String, Object> geometryParams = new HashMap<>();
+            geometryParams.put("routing_success", !cached.getPath().isEmpty());
+            geometryParams.put("polyline", geometry.encodePolyline(points));
+            geometryParams.put("points", points.length);
+            geometryParams.put("legs", geometry.legDistances(points));
+            geometryParams.put("distance", geometry.getDistance());
+            Gson gson = new Gson();
+            return gson.toJson(geometryParams);
+        });
+
+        /* Define the batch routing endpoint for HTTP POST requests. The body is a JSON array
+         * of [start_lon, start_lat, end_lon, end_lat] arrays; the routes are returned in the
+         * same order and do not replace the route drawn on the map. */
+        post("/route_batch", (req, res) -> {
+            double[][] pairs = getPairsBody(req);
+            Router.Algorithm algorithm = getAlgorithm(req);
+            Router.Metric metric = getMetric(req);
+            boolean withDirections = req.queryParams().contains("directions");
+            BatchRouter.Result[] results = Router.shortestPaths(graph, pairs, algorithm, metric,
+                    withDirections);
+            List<Map<String, Object>> routes = new ArrayList<>();
+            for (BatchRouter.Result result : results) {
+                Map<String, Object> routeParams = new HashMap<>();
+                routeParams.put("routing_success", result.isFound());
+                routeParams.put("path", result.getPath());
+                routeParams.put("distance", result.getDistance());
+                if (withDirections) {
+                    routeParams.put("directions", getDirectionsText(result.getDirections()));
+                }
+                routes.add(routeParams);
+            }
+            Map<String, Object> batchParams = new HashMap<>();
+            batchParams.put("routes", routes);
+            Gson gson = new Gson();
+            return gson.toJson(batchParams);
+        });
+
+        /* Define the API endpoint for the route cache counters. */
+        get("/route_cache", (req, res) -> {
+            Gson gson = new Gson();
+            return gson.toJson(routeCache.getStats());
+        });
+
+        /* Define the API endpoint for the tile cache counters. */
+        get("/tile_cache", (req, res) -> {
+            Gson gson = new Gson();
+            return gson.toJson(tileCache.getStats());
+        });
+
+        /* Define the distance matrix endpoint for HTTP GET requests. */
+        get("/matrix", (req, res) -> {
+            double[][] sources = getLocationsParam(req, "sources", MAX_MATRIX_LOCATIONS);
+            double[][] destinations = req.queryParams("destinations") == null
+                    ? sources : getLocationsParam(req, "destinations", MAX_MATRIX_LOCATIONS);
+            double[][] distances = Router.distanceMatrix(graph, sources, destinations,
+                    getMetric(req));
+            Map<String, Object> matrixParams = new HashMap<>();
+            matrixParams.put("rows", sources.length);
+            matrixParams.put("columns", destinations.length);
+            matrixParams.put("distances", toJsonMatrix(distances));
+            Gson gson = new Gson();
+            return gson.toJson(matrixParams);
+        });
+
+        /* Define the isochrone endpoint for HTTP GET requests. */
+        get("/isochrone", (req, res) -> {
+            HashMap<String, Double> params =
+                    getRequestParams(req, REQUIRED_ISOCHRONE_REQUEST_PARAMS);
+            Router.Metric metric = getMetric(req);
+            double budget = params.get("budget");
+            double maxBudget = metric == Router.Metric.TIME
+                    ? MAX_ISOCHRONE_MINUTES : MAX_ISOCHRONE_MILES;
+            if (!(budget >= 0 && budget <= maxBudget)) {
+                halt(BAD_REQUEST_RESPONSE, "Incorrect parameters - budget must be 0 to "
+                        + maxBudget + ".");
+            }
+            if (metric == Router.Metric.TIME) {
+                budget *= 60;
+            }
+            double cellSize = ISOCHRONE_CELL_SIZE;
+            if (req.queryParams("cell") != null) {
+                try {
+                    cellSize = Double.parseDouble(req.queryParams("cell"));
+                } catch (NumberFormatException e) {
+                    halt(HALT_RESPONSE, "Incorrect parameters - provide numbers.");
+                }
+                if (!(cellSize > 0)) {
+                    halt(HALT_RESPONSE, "Incorrect parameters - cell must be positive.");
+                }
+            }
+            Isochrone isochrone = Router.isochrone(graph, params.get("lon"), params.get("lat"),
+                    budget, metric);
+            Map<String, Object> isochroneParams = new HashMap<>();
+            isochroneParams.put("reachable", isochrone.size());
+            isochroneParams.put("cell_size", cellSize);
+            isochroneParams.put("cells", isochrone.cells(cellSize));
+            isochroneParams.put("hull", isochrone.hull());
+            if (req.queryParams().contains("vertices")) {
+                long[] ids = new long[isochrone.size()];
+                double[] costs = new double[isochrone.size()];
+                for (int i = 0; i < ids.length; i++) {
+                    ids[i] = isochrone.vertex(i);
+                    costs[i] = isochrone.cost(i);
+                }
+                isochroneParams.put("vertices", ids);
+                isochroneParams.put("costs", costs);
+            }
+            Gson gson = new Gson();
+            return gson.toJson(isochroneParams);
+        });
+
+        /* Define the API endpoint for clearing the current route of a session. */
         get("/clear_route", (req, res) -> {
-            clearRoute();
+            clearRoute(req.queryParams("session"));
             return true;
         });
 
@@ -193,13 +370,154 @@ public class MapServer {
         return params;
     }
 
+    /**
+     * Parse a list of locations given as lon,lat pairs separated by semicolons, e.g.
+     * sources=-122.26,37.87;-122.25,37.86.
+     * @param req HTTP Request.
+     * @param name The name of the request parameter.
+     * @param max The most locations accepted.
+     * @return the locations as {lon, lat} pairs.
+     */
+    private static double[][] getLocationsParam(spark.Request req, String name, int max) {
+        String value = req.queryParams(name);
+        if (value == null || value.isEmpty()) {
+            halt(HALT_RESPONSE, "Request failed - parameters missing.");
+            return null;
+        }
+        String[] pairs = value.split(";");
+        if (pairs.length > max) {
+            halt(BAD_REQUEST_RESPONSE, "Request too large - at most " + max + " " + name + ".");
+        }
+        double[][] locations = new double[pairs.length][];
+        for (int i = 0; i < pairs.length; i++) {
+            String[] lonLat = pairs[i].split(",");
+            try {
+                if (lonLat.length != 2) {
+                    throw new NumberFormatException(pairs[i]);
+                }
+                locations[i] = new double[]{Double.parseDouble(lonLat[0]),
+                    Double.parseDouble(lonLat[1])};
+            } catch (NumberFormatException e) {
+                halt(HALT_RESPONSE, "Incorrect parameters - provide lon,lat pairs.");
+            }
+        }
+        return locations;
+    }
+
+    /**
+     * Return the route between the vertices closest to the start and end of a route request,
+     * from the route cache or found and cached now.
+     * @param req HTTP Request with the route request parameters.
+     * @param stats If not null, receives the number of vertices the search settled, which
+     *              is zero when the route was cached.
+     */
+    private static RouteCache.Entry findRoute(spark.Request req, SearchStats stats) {
+        HashMap<String, Double> params = getRequestParams(req, REQUIRED_ROUTE_REQUEST_PARAMS);
+        long start = graph.closest(params.get("start_lon"), params.get("start_lat"));
+        long end = graph.closest(params.get("end_lon"), params.get("end_lat"));
+        Router.Algorithm algorithm = getAlgorithm(req);
+        Router.Metric metric = getMetric(req);
+        RouteCache.Entry cached = routeCache.get(start, end, algorithm, metric);
+        if (cached == null) {
+            List<Long> path = Router.shortestPath(graph, start, end, algorithm, metric, stats);
+            List<Router.NavigationDirection> steps = path.size() < 2
+                    ? new ArrayList<>() : Router.routeDirections(graph, path);
+            cached = routeCache.put(start, end, algorithm, metric, path, steps);
+        }
+        return cached;
+    }
+
+    /**
+     * Parse the body of a batch routing request, a JSON array of
+     * [start_lon, start_lat, end_lon, end_lat] arrays.
+     * @param req HTTP Request.
+     * @return the pairs as {start lon, start lat, end lon, end lat}.
+     */
+    private static double[][] getPairsBody(spark.Request req) {
+        double[][] pairs = null;
+        try {
+            pairs = new Gson().fromJson(req.body(), double[][].class);
+        } catch (JsonParseException e) {
+            halt(HALT_RESPONSE, "Incorrect body - provide a JSON array of coordinate pairs.");
+        }
+        if (pairs == null) {
+            halt(HALT_RESPONSE, "Request failed - coordinate pairs missing.");
+            return null;
+        }
+        if (pairs.length > MAX_BATCH_PAIRS) {
+            halt(BAD_REQUEST_RESPONSE, "Request too large - at most " + MAX_BATCH_PAIRS
+                    + " coordinate pairs.");
+        }
+        for (double[] pair : pairs) {
+            if (pair == null || pair.length != 4) {
+                halt(HALT_RESPONSE, "Incorrect body - provide [start_lon, start_lat, "
+                        + "end_lon, end_lat] for every pair.");
+            }
+        }
+        return pairs;
+    }
+
+    /**
+     * Convert a distance matrix for JSON encoding, with null for unreachable pairs since
+     * JSON has no infinity.
+     */
+    private static Double[][] toJsonMatrix(double[][] distances) {
+        Double[][] matrix = new Double[distances.length][];
+        for (int i = 0; i < distances.length; i++) {
+            matrix[i] = new Double[distances[i].length];
+            for (int j = 0; j < distances[i].length; j++) {
+                double d = distances[i][j];
+                matrix[i][j] = d < Double.POSITIVE_INFINITY ? d : null;
+            }
+        }
+        return matrix;
+    }
+
+    /**
+     * Return the metric named by the optional "metric" request parameter, distance or time,
+     * defaulting to distance.
+     * @param req HTTP Request.
+     */
+    private static Router.Metric getMetric(spark.Request req) {
+        String name = req.queryParams("metric");
+        if (name == null) {
+            return Router.Metric.DISTANCE;
+        }
+        try {
+            return Router.Metric.valueOf(name.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            halt(HALT_RESPONSE, "Unknown routing metric " + name + ".");
+            return null;
+        }
+    }
+
+    /**
+     * Return the search algorithm named by the optional "algorithm" request parameter,
+     * e.g. algorithm=bidirectional_astar, defaulting to contraction hierarchies.
+     * @param req HTTP Request.
+     */
+    private static Router.Algorithm getAlgorithm(spark.Request req) {
+        String name = req.queryParams("algorithm");
+        if (name == null) {
+            return Router.Algorithm.CONTRACTION_HIERARCHIES;
+        }
+        try {
+            return Router.Algorithm.valueOf(name.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            halt(HALT_RESPONSE, "Unknown routing algorithm " + name + ".");
+            return null;
+        }
+    }
+
     /**
      * Writes the images corresponding to rasteredImgParams to the output stream.
      * In Spring 2016, students had to do this on their own, but in 2017,
      * we have made this into provided code since it was just a bit too low level.
+     * The route of the requesting session, if any, is drawn over the tiles.
      */
     private static void writeImagesToOutputStream(Map<String, Object> rasteredImageParams,
-                                                  ByteArrayOutputStream os) {
+                                                  ByteArrayOutputStream os,
+                                                  RouteGeometry route) {
         String[][] renderGrid = (String[][]) rasteredImageParams.get("render_grid");
         int numVertTiles = renderGrid.length;
         int numHorizTiles = renderGrid[0].length;
@@ -211,7 +529,7 @@ public class MapServer {
 
         for (int r = 0; r < numVertTiles; r += 1) {
             for (int c = 0; c < numHorizTiles; c += 1) {
-                graphic.drawImage(getImage(IMG_ROOT + renderGrid[r][c]), x, y, null);
+                graphic.drawImage(getImage(renderGrid[r][c]), x, y, null);
                 x += MapServer.TILE_SIZE;
                 if (x >= img.getWidth()) {
                     x = 0;
@@ -228,18 +546,16 @@ public class MapServer {
 
         final double wdpp = (lrlon - ullon) / img.getWidth();
         final double hdpp = (ullat - lrlat) / img.getHeight();
-        if (route != null && !route.isEmpty()) {
+        if (route != null && route.size() > 1) {
             Graphics2D g2d = (Graphics2D) graphic;
             g2d.setColor(MapServer.ROUTE_STROKE_COLOR);
             g2d.setStroke(new BasicStroke(MapServer.ROUTE_STROKE_WIDTH_PX,
                     BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
-            route.stream().reduce((v, w) -> {
-                g2d.drawLine((int) ((graph.lon(v) - ullon) * (1 / wdpp)),
-                             (int) ((ullat - graph.lat(v)) * (1 / hdpp)),
-                             (int) ((graph.lon(w) - ullon) * (1 / wdpp)),
-                             (int) ((ullat - graph.lat(w)) * (1 / hdpp)));
-                return w;
-            });
+            int depth = (int) rasteredImageParams.get("depth");
+            for (int[][] run : route.visibleRuns(depth, ullon, ullat, wdpp, hdpp,
+                    img.getWidth(), img.getHeight(), MapServer.ROUTE_STROKE_WIDTH_PX)) {
+                g2d.drawPolyline(run[0], run[1], run[0].length);
+            }
         }
 
         rasteredImageParams.put("raster_width", img.getWidth());
@@ -253,24 +569,19 @@ public class MapServer {
 
     }
 
-    private static BufferedImage getImage(String imgPath) {
-        BufferedImage tileImg = null;
-        if (tileImg == null) {
-            try {
-                File in = new File(imgPath);
-                tileImg = ImageIO.read(in);
-            } catch (IOException | NullPointerException e) {
-                e.printStackTrace();
-            }
-        }
-        return tileImg;
+    /**
+     * Returns the decoded tile with the given file name from the tile cache.
+     */
+    private static BufferedImage getImage(String tileName) {
+        return tileCache.get(tileName);
     }
 
     /**
-     * Clear the current found route, if it exists.
+     * Clear the current found route of a session, if it exists.
+     * @param session The session token handed out by /route.
      */
-    public static void clearRoute() {
-        route = new LinkedList<Long>();
+    public static void clearRoute(String session) {
+        routes.remove(session);
     }
 
     /**
@@ -335,11 +646,10 @@ public class MapServer {
     }
 
     /**
-     * Takes the route of this MapServer and converts it into an HTML friendly
+     * Takes the directions of a route and converts them into an HTML friendly
      * String to be passed to the frontend.
      */
-    private static String getDirectionsText() {
-        List<Router.NavigationDirection> directions = Router.routeDirections(graph, route);
+    private static String getDirectionsText(List<Router.NavigationDirection> directions) {
         if (directions == null || directions.isEmpty()) {
           return "";
         }
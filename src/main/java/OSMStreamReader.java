@@ -0,0 +1,274 @@
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPInputStream;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Streaming OSM XML reader that builds a GraphDB in two pipelined stages. A parse thread
+ * pulls elements off a StAX reader, decodes their attributes into GraphDB.Node and
+ * GraphDB.Way objects and hands them over in batches through a bounded queue; the calling
+ * thread takes the batches and inserts them into the graph, exactly as GraphBuildingHandler
+ * does for the SAX parser. Files ending in .gz or .bz2 are decompressed on the fly, so
+ * regional extracts never need to be unpacked to disk.
+ */
+class OSMStreamReader {
+//    number of decoded elements handed over at a time
+    private static final int BATCH_SIZE = 1024;
+
+//    number of batches the parse thread may run ahead of the builder
+    private static final int QUEUE_BATCHES = 64;
+
+//    marks the end of the element stream
+    private static final List<Object> END = Collections.emptyList();
+
+    private final GraphDB g;
+
+    /**
+     * Parse and build throughput of one read, in OSM elements (nodes, ways and relations).
+     */
+    static class Stats {
+        private final long elements;
+        private final long parseNanos, buildNanos, wallNanos;
+
+        Stats(long elements, long parseNanos, long buildNanos, long wallNanos) {
+            this.elements = elements;
+            this.parseNanos = parseNanos;
+            this.buildNanos = buildNanos;
+            this.wallNanos = wallNanos;
+        }
+
+        long elements() {
+            return elements;
+        }
+
+        /**
+         * @return elements per second decoded by the parse stage, excluding time spent
+         * waiting for the builder.
+         */
+        double parseRate() {
+            return elements / Math.max(parseNanos / 1e9, 1e-9);
+        }
+
+        /**
+         * @return elements per second inserted by the build stage, excluding time spent
+         * waiting for the parser.
+         */
+        double buildRate() {
+            return elements / Math.max(buildNanos / 1e9, 1e-9);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Read %d OSM elements in %.0f ms: parse %.0f elements/s, "
+                    + "build %.0f elements/s.", elements, wallNanos / 1e6, parseRate(), buildRate());
+        }
+    }
+
+    OSMStreamReader(GraphDB g) {
+        this.g = g;
+    }
+
+    /**
+     * Open an OSM file for reading, decompressing .gz and .bz2 files on the fly.
+     */
+    static InputStream open(File file) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(file), 1 << 16);
+        String name = file.getName();
+        if (name.endsWith(".gz")) {
+            return new BufferedInputStream(new GZIPInputStream(in, 1 << 16), 1 << 16);
+        } else if (name.endsWith(".bz2")) {
+            return new BufferedInputStream(new BZip2CompressorInputStream(in, true), 1 << 16);
+        }
+        return in;
+    }
+
+    /**
+     * Read file into the graph. Returns once every element has been inserted.
+     */
+    Stats read(File file) throws IOException, XMLStreamException {
+        long start = System.nanoTime();
+        BlockingQueue<List<Object>> queue = new ArrayBlockingQueue<>(QUEUE_BATCHES);
+        Parser parser = new Parser(open(file), queue);
+        Thread thread = new Thread(parser, "osm-parse");
+        thread.setDaemon(true);
+        thread.start();
+
+        long buildNanos = 0;
+        try {
+            while (true) {
+                List<Object> batch = queue.take();
+                if (batch == END) {
+                    break;
+                }
+                long t = System.nanoTime();
+                for (Object element : batch) {
+                    insert(element);
+                }
+                buildNanos += System.nanoTime() - t;
+            }
+            thread.join();
+        } catch (InterruptedException e) {
+            thread.interrupt();
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while reading " + file, e);
+        } catch (RuntimeException e) {
+            thread.interrupt();
+            throw e;
+        }
+
+        if (parser.error instanceof IOException) {
+            throw (IOException) parser.error;
+        } else if (parser.error instanceof XMLStreamException) {
+            throw (XMLStreamException) parser.error;
+        } else if (parser.error instanceof RuntimeException) {
+            throw (RuntimeException) parser.error;
+        } else if (parser.error != null) {
+            throw new IOException(parser.error);
+        }
+        return new Stats(parser.elements, parser.parseNanos, buildNanos, System.nanoTime() - start);
+    }
+
+//    add a decoded element to the graph, as GraphBuildingHandler.endElement does
+    private void insert(Object element) {
+        if (element instanceof GraphDB.Node) {
+            GraphDB.Node node = (GraphDB.Node) element;
+            g.insertNode(node.getID(), node);
+        } else {
+            GraphDB.Way way = (GraphDB.Way) element;
+            g.addWay(way.getID(), way);
+            if (way.getValid()) {
+                g.buildPath(way);
+            }
+        }
+    }
+
+    /**
+     * Parse stage: StAX events to decoded nodes and ways, in file order.
+     */
+    private static class Parser implements Runnable {
+        private final InputStream in;
+        private final BlockingQueue<List<Object>> queue;
+        private volatile Throwable error;
+        private volatile long elements;
+        private volatile long parseNanos;
+
+        Parser(InputStream in, BlockingQueue<List<Object>> queue) {
+            this.in = in;
+            this.queue = queue;
+        }
+
+        @Override
+        public void run() {
+            try {
+                parse();
+            } catch (InterruptedException e) {
+                return;
+            } catch (Throwable e) {
+                error = e;
+            } finally {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    if (error == null) {
+                        error = e;
+                    }
+                }
+            }
+            try {
+                queue.put(END);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void parse() throws XMLStreamException, InterruptedException {
+            XMLInputFactory factory = XMLInputFactory.newInstance();
+            factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+            factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+            factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+            XMLStreamReader reader = factory.createXMLStreamReader(in);
+
+            long t = System.nanoTime();
+            long count = 0;
+            List<Object> batch = new ArrayList<>(BATCH_SIZE);
+            String activeState = "";
+            GraphDB.Node lastNode = null;
+            GraphDB.Way lastWay = null;
+
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    String name = reader.getLocalName();
+                    if (name.equals("node")) {
+                        activeState = "node";
+                        long id = Long.parseLong(reader.getAttributeValue(null, "id"));
+                        double lon = Double.parseDouble(reader.getAttributeValue(null, "lon"));
+                        double lat = Double.parseDouble(reader.getAttributeValue(null, "lat"));
+                        lastNode = new GraphDB.Node(id, lon, lat);
+                    } else if (activeState.equals("node") && name.equals("tag")) {
+                        if ("name".equals(reader.getAttributeValue(null, "k"))) {
+                            lastNode.setName(reader.getAttributeValue(null, "v"));
+                        }
+                    } else if (name.equals("way")) {
+                        activeState = "way";
+                        lastWay = new GraphDB.Way(Long.parseLong(reader.getAttributeValue(null, "id")));
+                    } else if (activeState.equals("way") && name.equals("nd")) {
+                        lastWay.addNode(Long.parseLong(reader.getAttributeValue(null, "ref")));
+                    } else if (activeState.equals("way") && name.equals("tag")) {
+                        String k = reader.getAttributeValue(null, "k");
+                        String v = reader.getAttributeValue(null, "v");
+                        if (k.equals("maxspeed")) {
+                            lastWay.setMax_speed(v);
+                        } else if (k.equals("highway")) {
+                            lastWay.setHighway(v);
+                            lastWay.setValid(GraphBuildingHandler.isAllowed(v));
+                        } else if (k.equals("name")) {
+                            lastWay.setName(v);
+                        }
+                    } else if (name.equals("relation")) {
+                        count++;
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    String name = reader.getLocalName();
+                    Object done = null;
+                    if (name.equals("node")) {
+                        done = lastNode;
+                        activeState = "";
+                    } else if (name.equals("way")) {
+                        done = lastWay;
+                        activeState = "";
+                    }
+                    if (done != null) {
+                        count++;
+                        batch.add(done);
+                        if (batch.size() == BATCH_SIZE) {
+                            parseNanos += System.nanoTime() - t;
+                            queue.put(batch);
+                            t = System.nanoTime();
+                            batch = new ArrayList<>(BATCH_SIZE);
+                        }
+                    }
+                }
+            }
+            reader.close();
+            parseNanos += System.nanoTime() - t;
+            elements = count;
+            if (!batch.isEmpty()) {
+                queue.put(batch);
+            }
+        }
+    }
+}
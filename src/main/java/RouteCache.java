@@ -0,0 +1,168 @@
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Bounded least-recently-used cache of routes, keyed by the start and end vertices a request
+ * snapped to, the search algorithm and the metric, so the many nearby coordinates that snap
+ * to the same pair of vertices share one entry. Each entry holds the path and its directions.
+ * The cache is bounded by the total number of path vertices it holds rather than by the
+ * number of routes, because one cross-town route weighs as much as dozens of short ones.
+ *
+ * A cache belongs to one graph; create a new one when the graph is reloaded. All methods are
+ * thread-safe.
+ */
+public class RouteCache {
+    private final int maxVertices;
+    private int vertices;
+
+//    access-ordered, so iteration starts at the least recently used entry
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param maxVertices the largest total number of path vertices to keep.
+     */
+    public RouteCache(int maxVertices) {
+        this.maxVertices = maxVertices;
+    }
+
+    /**
+     * Return the cached route between the given vertices, counting a hit or a miss.
+     * @param start The id of the start vertex.
+     * @param end The id of the end vertex.
+     * @param algorithm The algorithm the route was found with.
+     * @param metric The metric the route minimizes.
+     * @return the entry, or null if the route is not cached.
+     */
+    public synchronized Entry get(long start, long end, Router.Algorithm algorithm,
+                                  Router.Metric metric) {
+        Entry entry = entries.get(new Key(start, end, algorithm, metric));
+        if (entry == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return entry;
+    }
+
+    /**
+     * Cache a route, evicting the least recently used routes until it fits. Routes longer
+     * than the whole cache are returned without being stored.
+     * @return the new entry.
+     */
+    public synchronized Entry put(long start, long end, Router.Algorithm algorithm,
+                                  Router.Metric metric, List<Long> path,
+                                  List<Router.NavigationDirection> directions) {
+        Entry entry = new Entry(path, directions);
+        if (path.size() > maxVertices) {
+            return entry;
+        }
+        Entry old = entries.put(new Key(start, end, algorithm, metric), entry);
+        if (old != null) {
+            vertices -= old.path.size();
+        }
+        vertices += path.size();
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (vertices > maxVertices) {
+            vertices -= eldest.next().path.size();
+            eldest.remove();
+            evictions++;
+        }
+        return entry;
+    }
+
+    /**
+     * Remove every route, keeping the counters.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        vertices = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Returns the counters and occupancy as a map, for JSON encoding.
+     */
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("evictions", evictions);
+        stats.put("routes", entries.size());
+        stats.put("vertices", vertices);
+        stats.put("max_vertices", maxVertices);
+        return stats;
+    }
+
+    /**
+     * A cached route: the OSM ids of its vertices and its directions, both unmodifiable.
+     */
+    public static class Entry {
+        private final List<Long> path;
+        private final List<Router.NavigationDirection> directions;
+
+        Entry(List<Long> path, List<Router.NavigationDirection> directions) {
+            this.path = Collections.unmodifiableList(path);
+            this.directions = Collections.unmodifiableList(directions);
+        }
+
+        public List<Long> getPath() {
+            return path;
+        }
+
+        public List<Router.NavigationDirection> getDirections() {
+            return directions;
+        }
+    }
+
+    private static class Key {
+        private final long start;
+        private final long end;
+        private final Router.Algorithm algorithm;
+        private final Router.Metric metric;
+
+        Key(long start, long end, Router.Algorithm algorithm, Router.Metric metric) {
+            this.start = start;
+            this.end = end;
+            this.algorithm = algorithm;
+            this.metric = metric;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return start == other.start && end == other.end && algorithm == other.algorithm
+                    && metric == other.metric;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(start, end, algorithm, metric);
+        }
+    }
+}
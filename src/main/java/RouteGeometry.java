@@ -0,0 +1,273 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The polyline of a route, prepared for drawing over raster images. At a given zoom depth
+ * every raster has the same degrees per pixel, so the route is simplified once per depth with
+ * Douglas-Peucker at a tolerance of half a pixel and the result is cached; zoomed out, a
+ * route of hundreds of vertices shrinks to the few points that still make a visible bend.
+ * Each raster then only gets the runs of simplified segments that cross its bounds.
+ *
+ * The same simplified points can be sent to clients that draw the route themselves, as an
+ * encoded polyline with the distance along the route of every leg between two points.
+ *
+ * A geometry is immutable apart from its cache and can be drawn by many threads at once.
+ */
+public class RouteGeometry {
+//    largest distance in pixels a simplified line may stray from the route
+    private static final double TOLERANCE_PX = 0.5;
+
+//    encoded polylines store coordinates in units of 1e-5 degrees
+    private static final double POLYLINE_SCALE = 1e5;
+
+    private final List<Long> path;
+    private final double[] lons;
+    private final double[] lats;
+
+//    distance in miles along the route from its first point to every point
+    private final double[] along;
+
+//    depth -> indices of the points that survive simplification at that depth
+    private final ConcurrentHashMap<Integer, int[]> simplified = new ConcurrentHashMap<>();
+
+    /**
+     * @param g The graph the route runs on.
+     * @param path The OSM ids of the route vertices.
+     */
+    public RouteGeometry(GraphDB g, List<Long> path) {
+        this.path = Collections.unmodifiableList(path);
+        lons = new double[path.size()];
+        lats = new double[path.size()];
+        for (int i = 0; i < lons.length; i++) {
+            int v = g.vertexIndex(path.get(i));
+            lons[i] = g.lonAt(v);
+            lats[i] = g.latAt(v);
+        }
+        along = along(lons, lats);
+    }
+
+    /**
+     * @param lons The longitudes of the route points.
+     * @param lats The latitudes of the route points.
+     */
+    RouteGeometry(double[] lons, double[] lats) {
+        this.path = Collections.emptyList();
+        this.lons = lons;
+        this.lats = lats;
+        along = along(lons, lats);
+    }
+
+    private static double[] along(double[] lons, double[] lats) {
+        double[] along = new double[lons.length];
+        for (int i = 1; i < lons.length; i++) {
+            along[i] = along[i - 1] + GraphDB.distance(lons[i - 1], lats[i - 1], lons[i], lats[i]);
+        }
+        return along;
+    }
+
+    /**
+     * @return the OSM ids of the route vertices.
+     */
+    public List<Long> getPath() {
+        return path;
+    }
+
+    /**
+     * @return the number of points of the route.
+     */
+    public int size() {
+        return lons.length;
+    }
+
+    /**
+     * @return the length of the route in miles.
+     */
+    public double getDistance() {
+        return along.length == 0 ? 0 : along[along.length - 1];
+    }
+
+    /**
+     * @return the indices of all points of the route, for the methods taking a subset.
+     */
+    int[] allPoints() {
+        int[] points = new int[lons.length];
+        for (int i = 0; i < points.length; i++) {
+            points[i] = i;
+        }
+        return points;
+    }
+
+    /**
+     * Encode a subset of the route points in the encoded polyline format of the Google Maps
+     * APIs: latitude and longitude rounded to 1e-5 degrees, each point as the difference from
+     * the previous one, written as zigzag varints in printable ASCII.
+     * @param points Increasing indices of route points, as from simplified or allPoints.
+     */
+    String encodePolyline(int[] points) {
+        StringBuilder sb = new StringBuilder(points.length * 8);
+        long lastLat = 0;
+        long lastLon = 0;
+        for (int i : points) {
+            long lat = Math.round(lats[i] * POLYLINE_SCALE);
+            long lon = Math.round(lons[i] * POLYLINE_SCALE);
+            encodeValue(lat - lastLat, sb);
+            encodeValue(lon - lastLon, sb);
+            lastLat = lat;
+            lastLon = lon;
+        }
+        return sb.toString();
+    }
+
+    private static void encodeValue(long delta, StringBuilder sb) {
+        long value = delta < 0 ? ~(delta << 1) : delta << 1;
+        while (value >= 0x20) {
+            sb.append((char) ((0x20 | (value & 0x1f)) + 63));
+            value >>= 5;
+        }
+        sb.append((char) (value + 63));
+    }
+
+    /**
+     * Return the length in miles along the route between every two consecutive points of a
+     * subset, so the legs of a simplified polyline add up to the length of the whole route.
+     * @param points Increasing indices of route points, as from simplified or allPoints.
+     */
+    double[] legDistances(int[] points) {
+        double[] legs = new double[Math.max(0, points.length - 1)];
+        for (int k = 0; k < legs.length; k++) {
+            legs[k] = along[points[k + 1]] - along[points[k]];
+        }
+        return legs;
+    }
+
+    /**
+     * Return the parts of the route visible in a raster, in pixel coordinates of the raster.
+     * Segments whose bounding box lies outside the raster, widened by margin pixels on every
+     * side, are dropped, and the remaining consecutive segments are joined into runs.
+     * @param depth The zoom depth of the raster; wdpp and hdpp must be the same for every
+     *              raster of this depth, since the simplified route is cached by depth.
+     * @param ullon The longitude of the upper left corner of the raster.
+     * @param ullat The latitude of the upper left corner of the raster.
+     * @param wdpp The longitude degrees per pixel of the raster.
+     * @param hdpp The latitude degrees per pixel of the raster.
+     * @param width The width of the raster in pixels.
+     * @param height The height of the raster in pixels.
+     * @param margin The number of pixels the drawn line reaches beyond its centre.
+     * @return every run as {x coordinates, y coordinates}, for Graphics.drawPolyline.
+     */
+    public List<int[][]> visibleRuns(int depth, double ullon, double ullat, double wdpp,
+                                     double hdpp, int width, int height, double margin) {
+        int[] points = simplified(depth, wdpp, hdpp);
+        double minLon = ullon - margin * wdpp;
+        double maxLon = ullon + (width + margin) * wdpp;
+        double maxLat = ullat + margin * hdpp;
+        double minLat = ullat - (height + margin) * hdpp;
+
+        List<int[][]> runs = new ArrayList<>();
+        int runStart = -1;
+        for (int i = 1; i <= points.length; i++) {
+            boolean visible = i < points.length
+                    && Math.max(lons[points[i - 1]], lons[points[i]]) >= minLon
+                    && Math.min(lons[points[i - 1]], lons[points[i]]) <= maxLon
+                    && Math.max(lats[points[i - 1]], lats[points[i]]) >= minLat
+                    && Math.min(lats[points[i - 1]], lats[points[i]]) <= maxLat;
+            if (visible && runStart < 0) {
+                runStart = i - 1;
+            } else if (!visible && runStart >= 0) {
+                int[][] run = new int[2][i - runStart];
+                for (int j = runStart; j < i; j++) {
+                    run[0][j - runStart] = (int) ((lons[points[j]] - ullon) * (1 / wdpp));
+                    run[1][j - runStart] = (int) ((ullat - lats[points[j]]) * (1 / hdpp));
+                }
+                runs.add(run);
+                runStart = -1;
+            }
+        }
+        return runs;
+    }
+
+    /**
+     * Return the indices of the route points kept by Douglas-Peucker simplification at a
+     * tolerance of half a pixel, computing them on the first call for a depth.
+     * @param depth The zoom depth the degrees per pixel belong to.
+     * @param wdpp The longitude degrees per pixel.
+     * @param hdpp The latitude degrees per pixel.
+     */
+    int[] simplified(int depth, double wdpp, double hdpp) {
+        int[] points = simplified.get(depth);
+        if (points == null) {
+            points = simplify(1 / wdpp, 1 / hdpp);
+            simplified.put(depth, points);
+        }
+        return points;
+    }
+
+//    Douglas-Peucker in pixel space, with an explicit stack of ranges instead of recursion
+    private int[] simplify(double xScale, double yScale) {
+        int n = lons.length;
+        if (n < 3) {
+            return allPoints();
+        }
+        boolean[] keep = new boolean[n];
+        keep[0] = true;
+        keep[n - 1] = true;
+        int[] stack = new int[64];
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = n - 1;
+        while (top > 0) {
+            int last = stack[--top];
+            int first = stack[--top];
+            double x0 = lons[first] * xScale;
+            double y0 = lats[first] * yScale;
+            double dx = lons[last] * xScale - x0;
+            double dy = lats[last] * yScale - y0;
+            double length2 = dx * dx + dy * dy;
+            int farthest = -1;
+            double farthest2 = TOLERANCE_PX * TOLERANCE_PX;
+            for (int i = first + 1; i < last; i++) {
+                double px = lons[i] * xScale - x0;
+                double py = lats[i] * yScale - y0;
+                double d2;
+                if (length2 == 0) {
+                    d2 = px * px + py * py;
+                } else {
+                    double t = Math.max(0, Math.min(1, (px * dx + py * dy) / length2));
+                    double ex = px - t * dx;
+                    double ey = py - t * dy;
+                    d2 = ex * ex + ey * ey;
+                }
+                if (d2 > farthest2) {
+                    farthest = i;
+                    farthest2 = d2;
+                }
+            }
+            if (farthest < 0) {
+                continue;
+            }
+            keep[farthest] = true;
+            if (top + 4 > stack.length) {
+                stack = Arrays.copyOf(stack, stack.length * 2);
+            }
+            stack[top++] = first;
+            stack[top++] = farthest;
+            stack[top++] = farthest;
+            stack[top++] = last;
+        }
+        int count = 0;
+        for (boolean k : keep) {
+            count += k ? 1 : 0;
+        }
+        int[] points = new int[count];
+        count = 0;
+        for (int i = 0; i < n; i++) {
+            if (keep[i]) {
+                points[count++] = i;
+            }
+        }
+        return points;
+    }
+}
@@ -0,0 +1,131 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.UUID;
+import java.util.function.LongSupplier;
+
+/**
+ * The current route of every map session, keyed by a random session token the server hands
+ * out with the first route of a session. Each user's /route, /raster and /clear_route calls
+ * carry their own token, so concurrent users never see or overwrite each other's routes.
+ *
+ * A session expires once it has not been used for the time to live; expired sessions read
+ * as having no route and are swept out while new routes are stored. The store also holds at
+ * most a fixed number of sessions and drops the least recently used ones beyond it, so
+ * clients that never send their token back cannot grow it without bound. All methods are
+ * thread-safe.
+ */
+public class RouteStore {
+    private final long ttlMillis;
+    private final int maxSessions;
+    private final LongSupplier clock;
+
+//    access-ordered, so iteration starts at the least recently used session
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * @param ttlMillis how long a session keeps its route after its last use, in milliseconds.
+     * @param maxSessions the largest number of sessions to keep.
+     */
+    public RouteStore(long ttlMillis, int maxSessions) {
+        this(ttlMillis, maxSessions, System::currentTimeMillis);
+    }
+
+    /**
+     * @param ttlMillis how long a session keeps its route after its last use.
+     * @param maxSessions the largest number of sessions to keep.
+     * @param clock the current time in milliseconds.
+     */
+    RouteStore(long ttlMillis, int maxSessions, LongSupplier clock) {
+        this.ttlMillis = ttlMillis;
+        this.maxSessions = maxSessions;
+        this.clock = clock;
+    }
+
+    /**
+     * Store the route of a session, replacing its previous one. Only tokens this store handed
+     * out for sessions that have not expired are honoured, so a client cannot choose a token
+     * and overwrite the route stored under it; any other token starts a new session. When
+     * the store is full, the least recently used session is dropped.
+     * @param token The session token, or null or empty to start a new session.
+     * @param route The route.
+     * @return the token of the session, which is new unless token named a live session.
+     */
+    public synchronized String put(String token, RouteGeometry route) {
+        long now = clock.getAsLong();
+        evictExpired(now);
+        if (token == null || !entries.containsKey(token)) {
+            token = UUID.randomUUID().toString();
+        }
+        entries.put(token, new Entry(route, now));
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (entries.size() > maxSessions) {
+            eldest.next();
+            eldest.remove();
+        }
+        return token;
+    }
+
+    /**
+     * Return the route of a session and keep the session alive.
+     * @param token The session token, possibly null.
+     * @return the route, or null if the session is unknown, expired or has no route.
+     */
+    public synchronized RouteGeometry get(String token) {
+        if (token == null) {
+            return null;
+        }
+        Entry entry = entries.get(token);
+        if (entry == null) {
+            return null;
+        }
+        long now = clock.getAsLong();
+        if (now - entry.lastUsed > ttlMillis) {
+            entries.remove(token);
+            return null;
+        }
+        entry.lastUsed = now;
+        return entry.route;
+    }
+
+    /**
+     * Forget the route of a session.
+     * @param token The session token, possibly null.
+     */
+    public synchronized void remove(String token) {
+        if (token != null) {
+            entries.remove(token);
+        }
+    }
+
+    /**
+     * Remove every session that has not been used for the time to live.
+     */
+    public synchronized void evictExpired() {
+        evictExpired(clock.getAsLong());
+    }
+
+//    sessions are in order of last use, so the expired ones are a prefix of the iteration
+    private void evictExpired(long now) {
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (eldest.hasNext() && now - eldest.next().lastUsed > ttlMillis) {
+            eldest.remove();
+        }
+    }
+
+    /**
+     * @return the number of stored sessions, including expired ones not swept out yet.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private static class Entry {
+        private final RouteGeometry route;
+        private long lastUsed;
+
+        Entry(RouteGeometry route, long lastUsed) {
+            this.route = route;
+            this.lastUsed = lastUsed;
+        }
+    }
+}
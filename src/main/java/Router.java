@@ -12,6 +12,31 @@ import java.util.regex.Pattern;
  */
 public class Router {
 
+    /**
+     * The search algorithms shortestPath can use. They all return shortest paths; they differ
+     * in how much of the graph they explore to find one.
+     */
+    public enum Algorithm {
+        /** A* from the start towards the destination. */
+        ASTAR,
+        /** A* with the landmark (ALT) lower bound as heuristic. */
+        ALT,
+        /** A* from both ends at once, meeting in the middle. */
+        BIDIRECTIONAL_ASTAR,
+        /** Upward searches in the precomputed contraction hierarchy of the graph. */
+        CONTRACTION_HIERARCHIES
+    }
+
+    /**
+     * What a route minimizes.
+     */
+    public enum Metric {
+        /** Length in miles. */
+        DISTANCE,
+        /** Travel time in seconds at the maxspeed of every way, or its highway default. */
+        TIME
+    }
+
     /**
      *
      * Return a List of longs representing the shortest path from the node
@@ -26,60 +51,182 @@ public class Router {
      */
     public static List<Long> shortestPath(GraphDB g, double stlon, double stlat,
                                           double destlon, double destlat) {
-        long startND = g.closest(stlon, stlat);
-        long endND = g.closest(destlon, destlat);
+        return shortestPath(g, stlon, stlat, destlon, destlat, Algorithm.ASTAR, null);
+    }
 
-        //A*'s algorithm
-        List<Long> path = stpA(g, startND, endND);
+    /**
+     * Return the shortest path like shortestPath above, using the given search algorithm.
+     * @param algorithm The search algorithm to use.
+     * @param stats If not null, receives the number of vertices the search settled.
+     */
+    public static List<Long> shortestPath(GraphDB g, double stlon, double stlat,
+                                          double destlon, double destlat,
+                                          Algorithm algorithm, SearchStats stats) {
+        return shortestPath(g, stlon, stlat, destlon, destlat, algorithm, Metric.DISTANCE, stats);
+    }
 
-        return path;
+    /**
+     * Return the path like shortestPath above that is shortest under the given metric.
+     * @param metric What the path minimizes.
+     */
+    public static List<Long> shortestPath(GraphDB g, double stlon, double stlat,
+                                          double destlon, double destlat,
+                                          Algorithm algorithm, Metric metric, SearchStats stats) {
+        return shortestPath(g, g.closest(stlon, stlat), g.closest(destlon, destlat),
+                algorithm, metric, stats);
     }
 
-    public static List<Long> stpA(GraphDB g, long start, long end) {
-        int verSize = ((Collection<Long>)g.vertices()).size();
-        Map<Long, Long> edgeTo = new HashMap<>();
-        Map<Long, Double> distance = new HashMap<>();
-        Set<Long> visited = new HashSet<>();
-        PriorityQueue<Long> pq = new PriorityQueue<>(new Comparator<Long>() {
-            @Override
-            public int compare(Long o1, Long o2) {
-                return Double.compare(distance.get(o1) + g.distance(o1, end), distance.get(o2) + g.distance(o2, end));
-            }
-        });
-        edgeTo.put(start, start);
-        distance.put(start, 0.0);
-        pq.add(start);
-
-
-        while(pq.peek() != end) {
-            long head = pq.poll();
-            for(long temp : g.adjacent(head)) {
-                if(!visited.contains(temp)) {
-                    edgeTo.put(temp, head);
-                    distance.put(temp, distance.get(head) + g.distance(temp, head));
-                    pq.add(temp);
-                }
-                visited.add(head);
+    /**
+     * Return the shortest path between two vertices using the given search algorithm.
+     * @param g The graph to use.
+     * @param start The id of the start vertex.
+     * @param end The id of the end vertex.
+     * @param algorithm The search algorithm to use.
+     * @param metric What the path minimizes.
+     * @param stats If not null, receives the number of vertices the search settled.
+     * @return A list of node id's in the order visited, or an empty list if end cannot be
+     * reached from start.
+     */
+    public static List<Long> shortestPath(GraphDB g, long start, long end,
+                                          Algorithm algorithm, Metric metric, SearchStats stats) {
+        int s = g.vertexIndex(start);
+        int t = g.vertexIndex(end);
+        if (s < 0 || t < 0 || g.component(s) != g.component(t)) {
+            if (stats != null) {
+                stats.settledForward = 0;
+                stats.settledBackward = 0;
             }
+            return new ArrayList<>();
         }
-        Stack<Long> path = new Stack<>();
-        long current = end;
-        while(current != start) {
-            path.push(current);
-            current = edgeTo.get(current);
+
+        List<Long> path;
+        SearchState forward = g.searchState();
+        SearchState backward = null;
+        if (algorithm == Algorithm.BIDIRECTIONAL_ASTAR) {
+            backward = g.backwardSearchState();
+            path = BidirectionalAStar.search(g, forward, backward, s, t, metric);
+        } else if (algorithm == Algorithm.CONTRACTION_HIERARCHIES) {
+            backward = g.backwardSearchState();
+            path = g.contractionHierarchy(metric).route(g, forward, backward, s, t);
+        } else {
+            Landmarks landmarks = algorithm == Algorithm.ALT ? g.landmarks(metric) : null;
+            path = AStar.search(g, forward, s, t, metric, landmarks)
+                    ? forward.path(g, t) : new ArrayList<>();
         }
-        path.push(start);
 
-        ArrayList<Long> stp = new ArrayList<>();
-        while(!path.empty()) {
-            stp.add(path.pop());
+        if (stats != null) {
+            stats.settledForward = forward.settledCount();
+            stats.settledBackward = backward == null ? 0 : backward.settledCount();
         }
+        return path;
+    }
 
-        return stp;
+    /**
+     * Return the shortest paths of many location pairs at once, computed in parallel on the
+     * common ForkJoinPool. Each pair is snapped and routed like shortestPath above.
+     * @param g The graph to use.
+     * @param pairs The queries as {start lon, start lat, end lon, end lat}.
+     * @param algorithm The search algorithm to use.
+     * @param metric What the paths minimize.
+     * @param directions Whether to compute the navigation directions of every route.
+     * @return the route of pairs[i] at index i.
+     */
+    public static BatchRouter.Result[] shortestPaths(GraphDB g, double[][] pairs,
+                                                     Algorithm algorithm, Metric metric,
+                                                     boolean directions) {
+        return BatchRouter.route(g, pairs, algorithm, metric, directions);
     }
 
+    /**
+     * Return the cheapest route between two locations snapped onto their closest road
+     * segments rather than their closest vertices, so the route starts and ends at the
+     * points on the road nearest the locations, part way along their segments.
+     * @param g The graph to use.
+     * @param stlon The longitude of the start location.
+     * @param stlat The latitude of the start location.
+     * @param destlon The longitude of the destination location.
+     * @param destlat The latitude of the destination location.
+     * @param metric What the route minimizes.
+     * @return The route, or null if g has no road segments.
+     */
+    public static EdgeRoute shortestPathOnEdges(GraphDB g, double stlon, double stlat,
+                                                double destlon, double destlat, Metric metric) {
+        SegmentIndex.Snap start = g.closestSegment(stlon, stlat);
+        SegmentIndex.Snap end = g.closestSegment(destlon, destlat);
+        if (start == null || end == null) {
+            return null;
+        }
+        return EdgeRoute.compute(g, g.searchState(), start, end, metric);
+    }
 
+    /**
+     * Return the road distances from every start location to every destination location.
+     * Each location is snapped to its closest vertex once, and the table is filled with
+     * one-to-many searches in the contraction hierarchy of g.
+     * @param g The graph to use.
+     * @param sources The start locations as {lon, lat} pairs.
+     * @param destinations The destination locations as {lon, lat} pairs.
+     * @return distances[i][j] is the length in miles of the shortest path from sources[i]
+     * to destinations[j], or infinity if there is none.
+     */
+    public static double[][] distanceMatrix(GraphDB g, double[][] sources,
+                                            double[][] destinations) {
+        return distanceMatrix(g, sources, destinations, Metric.DISTANCE);
+    }
+
+    /**
+     * Return the costs under the given metric of the best paths from every start location
+     * to every destination location, like distanceMatrix above.
+     * @param metric What the paths minimize: costs are miles or seconds.
+     */
+    public static double[][] distanceMatrix(GraphDB g, double[][] sources,
+                                            double[][] destinations, Metric metric) {
+        return DistanceMatrix.compute(g, snap(g, sources), snap(g, destinations), metric);
+    }
 
+    /**
+     * Return everything reachable from the vertex closest to a location within a budget.
+     * @param g The graph to use.
+     * @param lon The longitude of the location.
+     * @param lat The latitude of the location.
+     * @param budget The largest cost to include: miles for the distance metric, seconds for
+     *               the travel time metric.
+     * @param metric What the budget limits.
+     */
+    public static Isochrone isochrone(GraphDB g, double lon, double lat, double budget,
+                                      Metric metric) {
+        return Isochrone.compute(g, g.searchState(), g.closestIndex(lon, lat), budget, metric);
+    }
+
+//    the dense index of the vertex closest to each {lon, lat} pair, -1 if g has no vertices
+    private static int[] snap(GraphDB g, double[][] locations) {
+        int[] vertices = new int[locations.length];
+        for (int i = 0; i < locations.length; i++) {
+            vertices[i] = g.closestIndex(locations[i][0], locations[i][1]);
+        }
+        return vertices;
+    }
+
+    /**
+     * Return the shortest path between two vertices using A*.
+     * @param g The graph to use.
+     * @param start The id of the start vertex.
+     * @param end The id of the end vertex.
+     * @return A list of node id's in the order visited, or an empty list if end cannot be
+     * reached from start.
+     */
+    public static List<Long> stpA(GraphDB g, long start, long end) {
+        int s = g.vertexIndex(start);
+        int t = g.vertexIndex(end);
+        if (s < 0 || t < 0 || g.component(s) != g.component(t)) {
+            return new ArrayList<>();
+        }
+        SearchState state = g.searchState();
+        if (!AStar.search(g, state, s, t)) {
+            return new ArrayList<>();
+        }
+        return state.path(g, t);
+    }
 
     /**
      * Create the list of directions corresponding to a route on the graph.
@@ -90,57 +237,89 @@ public class Router {
      * route.
      */
     public static List<NavigationDirection> routeDirections(GraphDB g, List<Long> route) {
-        List<NavigationDirection> direction = new ArrayList<>();
-
-
-        NavigationDirection start = new NavigationDirection();
-        start.direction = NavigationDirection.START;
-        String pathName = g.getPathName(route.get(0), route.get(1));
-        if(pathName != null)
-            start.way = pathName;
-        start.distance = g.distance(route.get(0), route.get(1));
-        String currentWay = start.way;
-        NavigationDirection currentDir = start;
-        direction.add(currentDir);
-
-        int change = 1;
-
-        while(change + 1 < route.size()) {
-            while (g.getPathName(route.get(change), route.get(change + 1)) == null && currentWay == NavigationDirection.UNKNOWN_ROAD) {
-                currentDir.distance += g.distance(route.get(change), route.get(change + 1));
-                change++;
-                if(change + 1 == route.size())
-                    break;
-            }
-
-            if(change + 1 == route.size())
-                break;
+        int[] vertices = new int[route.size()];
+        for (int i = 0; i < vertices.length; i++) {
+            vertices[i] = g.vertexIndex(route.get(i));
+        }
+        return routeDirections(g, vertices);
+    }
 
-            while (g.getPathName(route.get(change), route.get(change + 1)) != null && g.getPathName(route.get(change), route.get(change + 1)).equals(currentWay)) {
-                currentDir.distance += g.distance(route.get(change), route.get(change + 1));
-                change++;
-                if(change + 1 == route.size())
-                    break;
+    /**
+     * Create the directions of a route given by the dense indices of its vertices, in one
+     * pass over its segments. The way and precomputed length of every segment are looked up
+     * once, from the edge between its ends, and a new direction starts wherever the way
+     * changes.
+     * Stretches of unnamed segments merge into the direction of an unnamed way before them.
+     * @param g The graph to use.
+     * @param vertices The dense indices of the route vertices in order.
+     */
+    static List<NavigationDirection> routeDirections(GraphDB g, int[] vertices) {
+        List<NavigationDirection> directions = new ArrayList<>();
+        int segments = vertices.length - 1;
+        if (segments < 1) {
+            return directions;
+        }
+        int[] ways = new int[segments];
+        double[] lengths = new double[segments];
+        for (int i = 0; i < segments; i++) {
+            int v = vertices[i];
+            int w = vertices[i + 1];
+            int edge = -1;
+            for (int e = g.edgeStart(v); e < g.edgeEnd(v); e++) {
+                if (g.edgeTarget(e) == w) {
+                    edge = e;
+                }
             }
+            ways[i] = edge < 0 ? -1 : g.edgeWay(edge);
+            lengths[i] = edge < 0 ? g.distanceAt(v, w) : g.edgeWeight(edge);
+        }
 
-            if(change + 1 == route.size())
-                break;
-            System.out.println(currentDir);
-            currentDir = new NavigationDirection();
-            currentDir.direction = directionChoice(g, route.get(change - 1), route.get(change), route.get(change + 1));
-            pathName = g.getPathName(route.get(change), route.get(change + 1));
-            if(pathName != null)
-                currentDir.way = pathName;
-            currentWay = currentDir.way;
-            currentDir.distance = 0;
-            direction.add(currentDir);
+        WayTable wayTable = g.getWayTable();
+        NavigationDirection current = new NavigationDirection();
+        current.direction = NavigationDirection.START;
+        String name = ways[0] < 0 ? null : wayTable.name(ways[0]);
+        if (name != null) {
+            current.way = name;
         }
-        return direction;
+        current.distance = lengths[0];
+        directions.add(current);
+
+//        unnamed segments extend a direction on an unknown road only until a segment with
+//        a name has extended it
+        boolean unnamedRun = true;
+        for (int i = 1; i < segments; i++) {
+            name = ways[i] < 0 ? null : wayTable.name(ways[i]);
+            if (unnamedRun && name == null && current.way == NavigationDirection.UNKNOWN_ROAD) {
+                current.distance += lengths[i];
+                continue;
+            }
+            unnamedRun = false;
+            if (name != null && name.equals(current.way)) {
+                current.distance += lengths[i];
+                continue;
+            }
+            current = new NavigationDirection();
+            current.direction = turn(g, vertices[i - 1], vertices[i], vertices[i + 1]);
+            if (name != null) {
+                current.way = name;
+            }
+            current.distance = lengths[i];
+            directions.add(current);
+            unnamedRun = name == null;
+        }
+        return directions;
     }
 
     public static int directionChoice(GraphDB g, long pre, long cur, long post) {
-        double beforeTurn = g.bearing(pre, cur);
-        double afterTurn = g.bearing(cur, post);
+        return turn(g, g.vertexIndex(pre), g.vertexIndex(cur), g.vertexIndex(post));
+    }
+
+//    the direction to take at vertex cur when coming from pre and going on to post
+    private static int turn(GraphDB g, int pre, int cur, int post) {
+        double beforeTurn = GraphDB.bearing(g.lonAt(pre), g.latAt(pre),
+                g.lonAt(cur), g.latAt(cur));
+        double afterTurn = GraphDB.bearing(g.lonAt(cur), g.latAt(cur),
+                g.lonAt(post), g.latAt(post));
         if(beforeTurn < 0)
             beforeTurn += 360;
         if(afterTurn < 0)
@@ -154,7 +333,6 @@ public class Router {
         if(degree < -180)
             degree +=360;
 
-        //System.out.println(degree);
         if(degree < 15.0 && degree > -15.0)
             return NavigationDirection.STRAIGHT;
         else if(degree <30.0 && degree > -30.0) {
@@ -0,0 +1,129 @@
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * This class provides a main method that measures how the vertex numbering of GraphDB
+ * affects routing. It loads the graph twice, once in OSM file order and once in the Hilbert
+ * curve order every other GraphDB constructor uses, and runs the same random queries on both.
+ *
+ * For each order it prints the mean query latency of A* and bidirectional A*, the mean index
+ * distance between the endpoints of an edge, and the mean number of distinct cache lines of
+ * a per-vertex int array an A* query touches through the vertices it settles, which is the
+ * number of misses that array costs a query on a cold cache. It then prints the throughput
+ * of the batch router on growing worker pools. To count the hardware cache misses of the
+ * whole run as well, start it under perf:
+ *
+ * <pre>
+ *     perf stat -e cache-references,cache-misses java RouterBenchmark [osm file] [queries]
+ * </pre>
+ */
+public class RouterBenchmark {
+    private static final String OSM_DB_PATH = "src/main/resources/berkeley-2018.osm.xml";
+    private static final int DEFAULT_QUERIES = 2000;
+    private static final int WARMUP_ROUNDS = 2;
+    private static final long SEED = 19;
+
+//    ints per 64-byte cache line
+    private static final int LINE_INTS = 16;
+
+    public static void main(String[] args) {
+        String path = args.length > 0 ? args[0] : OSM_DB_PATH;
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_QUERIES;
+
+        Random random = new Random(SEED);
+        double[][] coords = new double[queries][];
+        for (int i = 0; i < queries; i++) {
+            coords[i] = new double[]{randomLon(random), randomLat(random),
+                randomLon(random), randomLat(random)};
+        }
+
+        run("file order", new GraphDB(path, false, 1, false), coords);
+        GraphDB g = new GraphDB(path, false, 1, true);
+        run("hilbert order", g, coords);
+        batch(g, coords);
+    }
+
+//    throughput of BatchRouter on pools of 1, 2, 4, ... workers up to the number of cores
+    private static void batch(GraphDB g, double[][] coords) {
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.println("batch A*, hilbert order:");
+        for (int workers = 1; ; workers = Math.min(2 * workers, cores)) {
+            ForkJoinPool pool = new ForkJoinPool(workers);
+            for (int round = 0; round < WARMUP_ROUNDS; round++) {
+                BatchRouter.route(g, coords, Router.Algorithm.ASTAR, Router.Metric.DISTANCE,
+                        false, pool);
+            }
+            long start = System.nanoTime();
+            BatchRouter.route(g, coords, Router.Algorithm.ASTAR, Router.Metric.DISTANCE, false,
+                    pool);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            pool.shutdown();
+            System.out.printf("  %d workers %.0f queries/s%n", workers, coords.length / seconds);
+            if (workers == cores) {
+                break;
+            }
+        }
+    }
+
+    private static void run(String name, GraphDB g, double[][] coords) {
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            time(g, coords, Router.Algorithm.ASTAR);
+            time(g, coords, Router.Algorithm.BIDIRECTIONAL_ASTAR);
+        }
+        double astar = time(g, coords, Router.Algorithm.ASTAR);
+        double bidirectional = time(g, coords, Router.Algorithm.BIDIRECTIONAL_ASTAR);
+
+        long span = 0;
+        for (int v = 0; v < g.vertexCount(); v++) {
+            for (int e = g.edgeStart(v); e < g.edgeEnd(v); e++) {
+                span += Math.abs(g.edgeTarget(e) - v);
+            }
+        }
+
+        long lines = 0;
+        SearchState state = g.searchState();
+        boolean[] touched = new boolean[(g.vertexCount() + LINE_INTS - 1) / LINE_INTS];
+        for (double[] q : coords) {
+            int s = g.closestIndex(q[0], q[1]);
+            int t = g.closestIndex(q[2], q[3]);
+            if (s < 0 || t < 0) {
+                continue;
+            }
+            AStar.search(g, state, s, t);
+            Arrays.fill(touched, false);
+            for (int v = 0; v < g.vertexCount(); v++) {
+                if (state.isSettled(v) && !touched[v / LINE_INTS]) {
+                    touched[v / LINE_INTS] = true;
+                    lines++;
+                }
+            }
+        }
+
+        System.out.println(name + ":");
+        System.out.printf("  A* %.3f ms/query, bidirectional A* %.3f ms/query%n",
+                astar, bidirectional);
+        System.out.printf("  mean edge index span %.1f%n", (double) span / g.edgeCount());
+        System.out.printf("  mean cache lines touched per A* query %.1f%n",
+                (double) lines / coords.length);
+    }
+
+//    mean milliseconds per query
+    private static double time(GraphDB g, double[][] coords, Router.Algorithm algorithm) {
+        long start = System.nanoTime();
+        for (double[] q : coords) {
+            Router.shortestPath(g, q[0], q[1], q[2], q[3], algorithm, null);
+        }
+        return (System.nanoTime() - start) / 1e6 / coords.length;
+    }
+
+    private static double randomLon(Random random) {
+        return MapServer.ROOT_ULLON
+                + random.nextDouble() * (MapServer.ROOT_LRLON - MapServer.ROOT_ULLON);
+    }
+
+    private static double randomLat(Random random) {
+        return MapServer.ROOT_LRLAT
+                + random.nextDouble() * (MapServer.ROOT_ULLAT - MapServer.ROOT_LRLAT);
+    }
+}
@@ -0,0 +1,138 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reusable per-thread state for shortest path searches over the dense vertex indices of a
+ * GraphDB: tentative distances, parents, cached heuristic values, settled flags and the
+ * priority queue. Instead of clearing the arrays before every query, each query gets a new
+ * epoch number and an entry only counts if its stamp equals the current epoch, so reset()
+ * is O(1) apart from emptying what is left in the heap.
+ */
+class SearchState {
+    private final double[] dist;
+    private final int[] parent;
+    private final double[] estimate;
+
+//    epoch in which dist/parent/estimate of a vertex were last written, and in which it was settled
+    private final int[] stamp;
+    private final int[] settledStamp;
+    private int epoch;
+    private int settledCount;
+
+    final IndexedMinHeap heap;
+
+//    scratch space for unwinding parent pointers
+    private int[] pathBuffer = new int[64];
+
+    /**
+     * @param size the number of vertices in the graph.
+     */
+    SearchState(int size) {
+        dist = new double[size];
+        parent = new int[size];
+        estimate = new double[size];
+        stamp = new int[size];
+        settledStamp = new int[size];
+        heap = new IndexedMinHeap(size);
+    }
+
+    /**
+     * Forget everything about the previous search.
+     */
+    void reset() {
+        heap.clear();
+        settledCount = 0;
+        epoch++;
+        if (epoch == Integer.MAX_VALUE) {
+            Arrays.fill(stamp, 0);
+            Arrays.fill(settledStamp, 0);
+            epoch = 1;
+        }
+    }
+
+    int size() {
+        return dist.length;
+    }
+
+    /**
+     * @return whether v has been reached in the current search.
+     */
+    boolean reached(int v) {
+        return stamp[v] == epoch;
+    }
+
+    /**
+     * @return the tentative distance of v, or infinity if it has not been reached.
+     */
+    double dist(int v) {
+        return stamp[v] == epoch ? dist[v] : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * @return the vertex v was reached from, or -1 if it is a source or was not reached.
+     */
+    int parent(int v) {
+        return stamp[v] == epoch ? parent[v] : -1;
+    }
+
+    /**
+     * Record that v is reachable at distance d through parent. The heuristic estimate cached
+     * for v survives, so it is only computed once per vertex per search.
+     */
+    void update(int v, double d, int from) {
+        if (stamp[v] != epoch) {
+            stamp[v] = epoch;
+            estimate[v] = Double.NaN;
+        }
+        dist[v] = d;
+        parent[v] = from;
+    }
+
+    /**
+     * @return the cached heuristic estimate for v, or NaN if none has been stored yet.
+     */
+    double estimate(int v) {
+        return stamp[v] == epoch ? estimate[v] : Double.NaN;
+    }
+
+    void setEstimate(int v, double h) {
+        estimate[v] = h;
+    }
+
+    void settle(int v) {
+        if (settledStamp[v] != epoch) {
+            settledStamp[v] = epoch;
+            settledCount++;
+        }
+    }
+
+    boolean isSettled(int v) {
+        return settledStamp[v] == epoch;
+    }
+
+    /**
+     * @return the number of vertices settled in the current search.
+     */
+    int settledCount() {
+        return settledCount;
+    }
+
+    /**
+     * @return the vertices on the parent chain ending at t, source first, as OSM ids.
+     */
+    List<Long> path(GraphDB g, int t) {
+        int length = 0;
+        for (int v = t; v >= 0; v = parent(v)) {
+            if (length == pathBuffer.length) {
+                pathBuffer = Arrays.copyOf(pathBuffer, length * 2);
+            }
+            pathBuffer[length++] = v;
+        }
+        List<Long> path = new ArrayList<>(length);
+        for (int i = length - 1; i >= 0; i--) {
+            path.add(g.vertexId(pathBuffer[i]));
+        }
+        return path;
+    }
+}
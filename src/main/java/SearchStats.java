@@ -0,0 +1,27 @@
+/**
+ * Counters filled in by a shortest path search, so callers can compare how much of the
+ * graph different algorithms explore. Unidirectional searches only count forward.
+ */
+public class SearchStats {
+    /** Vertices settled by the search from the start. */
+    int settledForward;
+    /** Vertices settled by the search from the target. */
+    int settledBackward;
+
+    public int getSettledForward() {
+        return settledForward;
+    }
+
+    public int getSettledBackward() {
+        return settledBackward;
+    }
+
+    public int getSettled() {
+        return settledForward + settledBackward;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("settled %d forward, %d backward", settledForward, settledBackward);
+    }
+}
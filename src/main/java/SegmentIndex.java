@@ -0,0 +1,243 @@
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/**
+ * Uniform grid over the road segments of the graph, for snapping a point to the nearest
+ * point on any edge rather than to the nearest vertex. Every segment is stored once, as the
+ * edge from its lower to its higher vertex index, in each cell its bounding box overlaps.
+ * A query scans rings of cells outward from the query point like SpatialIndex, skipping
+ * cells whose lower bound exceeds the best distance found so far.
+ *
+ * The nearest point on a segment is found by projecting onto it in a local equirectangular
+ * plane around the query point, which is accurate to well under a metre at city scale; its
+ * distance is then measured with GraphDB.distance.
+ */
+class SegmentIndex {
+//    slack on the cell lower bound, in miles, to absorb floating point rounding
+    private static final double BOUND_SLACK = 1e-9;
+
+//    average number of segments per cell
+    private static final int SEGMENTS_PER_CELL = 2;
+
+    private final GraphDB graph;
+    private final double minLon, minLat, cellWidth, cellHeight;
+    private final int cols, rows;
+    private final double minCosLat;
+
+//    source vertex of every indexed segment, and its edge
+    private final int[] segmentFrom;
+    private final int[] segmentEdge;
+
+//    segments of cell c are cellSegments[cellStart[c]] .. cellSegments[cellStart[c + 1] - 1]
+    private final int[] cellStart;
+    private final int[] cellSegments;
+
+    /**
+     * A point on an edge: the edge from vertex from to vertex to, the fraction of the way
+     * along it, the coordinates of the point and its distance in miles from the query.
+     */
+    static class Snap {
+        final int edge;
+        final int from;
+        final int to;
+        final double fraction;
+        final double lon;
+        final double lat;
+        final double distance;
+
+        Snap(int edge, int from, int to, double fraction, double lon, double lat,
+             double distance) {
+            this.edge = edge;
+            this.from = from;
+            this.to = to;
+            this.fraction = fraction;
+            this.lon = lon;
+            this.lat = lat;
+            this.distance = distance;
+        }
+    }
+
+    /**
+     * Build the grid over the segments of the given graph.
+     */
+    SegmentIndex(GraphDB graph) {
+        this.graph = graph;
+        int n = graph.vertexCount();
+        int m = 0;
+        for (int v = 0; v < n; v++) {
+            for (int e = graph.edgeStart(v); e < graph.edgeEnd(v); e++) {
+                if (v < graph.edgeTarget(e)) {
+                    m++;
+                }
+            }
+        }
+        segmentFrom = new int[m];
+        segmentEdge = new int[m];
+        double loLon = Double.MAX_VALUE, hiLon = -Double.MAX_VALUE;
+        double loLat = Double.MAX_VALUE, hiLat = -Double.MAX_VALUE;
+        int s = 0;
+        for (int v = 0; v < n; v++) {
+            for (int e = graph.edgeStart(v); e < graph.edgeEnd(v); e++) {
+                if (v < graph.edgeTarget(e)) {
+                    segmentFrom[s] = v;
+                    segmentEdge[s] = e;
+                    s++;
+                }
+            }
+            loLon = Math.min(loLon, graph.lonAt(v));
+            hiLon = Math.max(hiLon, graph.lonAt(v));
+            loLat = Math.min(loLat, graph.latAt(v));
+            hiLat = Math.max(hiLat, graph.latAt(v));
+        }
+        if (n == 0) {
+            loLon = hiLon = loLat = hiLat = 0;
+        }
+        minLon = loLon;
+        minLat = loLat;
+        minCosLat = Math.min(Math.cos(Math.toRadians(loLat)), Math.cos(Math.toRadians(hiLat)));
+
+//        shape the grid so cells are roughly square on the ground
+        double width = Math.max(hiLon - loLon, 1e-9) * Math.max(minCosLat, 1e-3);
+        double height = Math.max(hiLat - loLat, 1e-9);
+        double cells = Math.max(1.0, (double) m / SEGMENTS_PER_CELL);
+        cols = (int) Math.max(1, Math.min(m + 1, Math.round(Math.sqrt(cells * width / height))));
+        rows = (int) Math.max(1, Math.min(m + 1, Math.round(cells / cols)));
+        cellWidth = Math.max(hiLon - loLon, 1e-9) / cols;
+        cellHeight = Math.max(hiLat - loLat, 1e-9) / rows;
+
+        cellStart = new int[rows * cols + 1];
+        for (s = 0; s < m; s++) {
+            int[] box = box(s);
+            for (int r = box[0]; r <= box[1]; r++) {
+                for (int c = box[2]; c <= box[3]; c++) {
+                    cellStart[r * cols + c + 1]++;
+                }
+            }
+        }
+        for (int c = 0; c < rows * cols; c++) {
+            cellStart[c + 1] += cellStart[c];
+        }
+        cellSegments = new int[cellStart[rows * cols]];
+        int[] fill = Arrays.copyOf(cellStart, rows * cols);
+        for (s = 0; s < m; s++) {
+            int[] box = box(s);
+            for (int r = box[0]; r <= box[1]; r++) {
+                for (int c = box[2]; c <= box[3]; c++) {
+                    cellSegments[fill[r * cols + c]++] = s;
+                }
+            }
+        }
+    }
+
+//    {first row, last row, first column, last column} of the cells segment s overlaps
+    private int[] box(int s) {
+        int v = segmentFrom[s];
+        int w = graph.edgeTarget(segmentEdge[s]);
+        int r0 = row(Math.min(graph.latAt(v), graph.latAt(w)));
+        int r1 = row(Math.max(graph.latAt(v), graph.latAt(w)));
+        int c0 = col(Math.min(graph.lonAt(v), graph.lonAt(w)));
+        int c1 = col(Math.max(graph.lonAt(v), graph.lonAt(w)));
+        return new int[]{r0, r1, c0, c1};
+    }
+
+    private int col(double lon) {
+        return Math.max(0, Math.min(cols - 1, (int) Math.floor((lon - minLon) / cellWidth)));
+    }
+
+    private int row(double lat) {
+        return Math.max(0, Math.min(rows - 1, (int) Math.floor((lat - minLat) / cellHeight)));
+    }
+
+    /**
+     * @return the point on any segment closest to (lon, lat), or null if there are no
+     * segments.
+     */
+    Snap nearest(double lon, double lat) {
+        return nearest(lon, lat, null);
+    }
+
+    /**
+     * @return the point closest to (lon, lat) on a segment whose source vertex accept holds
+     * for, or null if there is none. A null accept takes every segment.
+     */
+    Snap nearest(double lon, double lat, IntPredicate accept) {
+        double cosQuery = Math.cos(Math.toRadians(lat));
+        int row0 = row(lat);
+        int col0 = col(lon);
+        int best = -1;
+        double bestDistance = Double.POSITIVE_INFINITY;
+        double bestFraction = 0;
+
+        for (int ring = 0; ; ring++) {
+            boolean scanned = false;
+            for (int r = row0 - ring; r <= row0 + ring; r++) {
+                if (r < 0 || r >= rows) {
+                    continue;
+                }
+                boolean edgeRow = r == row0 - ring || r == row0 + ring;
+                int step = edgeRow ? 1 : 2 * ring;
+                for (int c = col0 - ring; c <= col0 + ring; c += step) {
+                    if (c < 0 || c >= cols) {
+                        continue;
+                    }
+                    double bound = SpatialIndex.boxLowerBound(minLon + c * cellWidth,
+                            minLat + r * cellHeight, cellWidth, cellHeight, lon, lat,
+                            cosQuery, minCosLat);
+                    if (bound > bestDistance + BOUND_SLACK) {
+                        continue;
+                    }
+                    scanned = true;
+                    int cell = r * cols + c;
+                    for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+                        int s = cellSegments[i];
+                        if (accept != null && !accept.test(segmentFrom[s])) {
+                            continue;
+                        }
+                        double fraction = project(s, lon, lat, cosQuery);
+                        double d = GraphDB.distance(pointLon(s, fraction), pointLat(s, fraction),
+                                lon, lat);
+                        if (d < bestDistance || (d == bestDistance && s < best)) {
+                            best = s;
+                            bestDistance = d;
+                            bestFraction = fraction;
+                        }
+                    }
+                }
+            }
+            if (!scanned) {
+                break;
+            }
+        }
+        if (best < 0) {
+            return null;
+        }
+        return new Snap(segmentEdge[best], segmentFrom[best], graph.edgeTarget(segmentEdge[best]),
+                bestFraction, pointLon(best, bestFraction), pointLat(best, bestFraction),
+                bestDistance);
+    }
+
+//    fraction along segment s of the point closest to (lon, lat) in the local plane
+    private double project(int s, double lon, double lat, double cosQuery) {
+        int v = segmentFrom[s];
+        int w = graph.edgeTarget(segmentEdge[s]);
+        double ax = (graph.lonAt(v) - lon) * cosQuery;
+        double ay = graph.latAt(v) - lat;
+        double dx = (graph.lonAt(w) - graph.lonAt(v)) * cosQuery;
+        double dy = graph.latAt(w) - graph.latAt(v);
+        double length2 = dx * dx + dy * dy;
+        if (length2 == 0) {
+            return 0;
+        }
+        return Math.max(0, Math.min(1, -(ax * dx + ay * dy) / length2));
+    }
+
+    private double pointLon(int s, double fraction) {
+        double lon0 = graph.lonAt(segmentFrom[s]);
+        return lon0 + fraction * (graph.lonAt(graph.edgeTarget(segmentEdge[s])) - lon0);
+    }
+
+    private double pointLat(int s, double fraction) {
+        double lat0 = graph.latAt(segmentFrom[s]);
+        return lat0 + fraction * (graph.latAt(graph.edgeTarget(segmentEdge[s])) - lat0);
+    }
+}
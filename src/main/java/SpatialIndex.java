@@ -0,0 +1,303 @@
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/**
+ * Uniform grid over vertex coordinates for nearest, k-nearest and radius queries. The bounding
+ * box of the vertices is split into roughly two vertices per cell, and a query scans rings of
+ * cells outward from the cell containing the query point. A cell is skipped when a lower bound
+ * on the great-circle distance to anything inside it already exceeds the current answer, and
+ * the search stops at the first ring in which every cell is skipped.
+ *
+ * Distances are computed with GraphDB.distance exactly as the old linear scan did, and ties
+ * are broken towards the smaller OSM id rather than the smaller vertex index, so vertices
+ * with equal coordinates, common in OSM, resolve the same way whatever order the graph
+ * numbers its vertices in.
+ */
+class SpatialIndex {
+//    slack on the cell lower bound, in miles, to absorb floating point rounding
+    private static final double BOUND_SLACK = 1e-9;
+
+//    average number of vertices per cell
+    private static final int VERTICES_PER_CELL = 2;
+
+    private final CSRGraph graph;
+    private final double minLon, minLat, cellWidth, cellHeight;
+    private final int cols, rows;
+
+//    smallest cos(lat) over the grid, used to bound the longitude term of the haversine
+    private final double minCosLat;
+
+//    vertices of cell c are cellVertices[cellStart[c]] .. cellVertices[cellStart[c + 1] - 1]
+    private final int[] cellStart;
+    private final int[] cellVertices;
+
+    /**
+     * Result of a query: the matching vertices sorted by distance (then by OSM id), their
+     * distances in miles, and the number of vertices whose distance was computed.
+     */
+    static class Result {
+        private final int[] vertices;
+        private final double[] distances;
+        private final int examined;
+
+        Result(int[] vertices, double[] distances, int examined) {
+            this.vertices = vertices;
+            this.distances = distances;
+            this.examined = examined;
+        }
+
+        int size() {
+            return vertices.length;
+        }
+
+        int vertex(int i) {
+            return vertices[i];
+        }
+
+        double distance(int i) {
+            return distances[i];
+        }
+
+        /**
+         * @return how many candidate vertices the query computed a distance for.
+         */
+        int examined() {
+            return examined;
+        }
+    }
+
+    /**
+     * Build the grid over the vertex coordinates of the given graph.
+     */
+    SpatialIndex(CSRGraph graph) {
+        this.graph = graph;
+        int n = graph.size();
+        double loLon = Double.MAX_VALUE, hiLon = -Double.MAX_VALUE;
+        double loLat = Double.MAX_VALUE, hiLat = -Double.MAX_VALUE;
+        for (int v = 0; v < n; v++) {
+            loLon = Math.min(loLon, graph.lon(v));
+            hiLon = Math.max(hiLon, graph.lon(v));
+            loLat = Math.min(loLat, graph.lat(v));
+            hiLat = Math.max(hiLat, graph.lat(v));
+        }
+        if (n == 0) {
+            loLon = hiLon = loLat = hiLat = 0;
+        }
+        minLon = loLon;
+        minLat = loLat;
+        minCosLat = Math.min(Math.cos(Math.toRadians(loLat)), Math.cos(Math.toRadians(hiLat)));
+
+//        shape the grid so cells are roughly square on the ground
+        double width = Math.max(hiLon - loLon, 1e-9) * Math.max(minCosLat, 1e-3);
+        double height = Math.max(hiLat - loLat, 1e-9);
+        double cells = Math.max(1.0, (double) n / VERTICES_PER_CELL);
+        cols = (int) Math.max(1, Math.min(n + 1, Math.round(Math.sqrt(cells * width / height))));
+        rows = (int) Math.max(1, Math.min(n + 1, Math.round(cells / cols)));
+        cellWidth = Math.max(hiLon - loLon, 1e-9) / cols;
+        cellHeight = Math.max(hiLat - loLat, 1e-9) / rows;
+
+        cellStart = new int[rows * cols + 1];
+        for (int v = 0; v < n; v++) {
+            cellStart[cell(v) + 1]++;
+        }
+        for (int c = 0; c < rows * cols; c++) {
+            cellStart[c + 1] += cellStart[c];
+        }
+        cellVertices = new int[n];
+        int[] fill = Arrays.copyOf(cellStart, rows * cols);
+        for (int v = 0; v < n; v++) {
+            cellVertices[fill[cell(v)]++] = v;
+        }
+    }
+
+    private int cell(int v) {
+        return row(graph.lat(v)) * cols + col(graph.lon(v));
+    }
+
+    private int col(double lon) {
+        return Math.max(0, Math.min(cols - 1, (int) Math.floor((lon - minLon) / cellWidth)));
+    }
+
+    private int row(double lat) {
+        return Math.max(0, Math.min(rows - 1, (int) Math.floor((lat - minLat) / cellHeight)));
+    }
+
+    /**
+     * @return the vertex closest to (lon, lat), as a result of size 1 (or 0 if the index is empty).
+     */
+    Result nearest(double lon, double lat) {
+        return search(lon, lat, 1, Double.POSITIVE_INFINITY, null);
+    }
+
+    /**
+     * @return the vertex closest to (lon, lat) among those accept holds for, as a result of
+     * size 1 (or 0 if there is none).
+     */
+    Result nearest(double lon, double lat, IntPredicate accept) {
+        return search(lon, lat, 1, Double.POSITIVE_INFINITY, accept);
+    }
+
+    /**
+     * @return the k vertices closest to (lon, lat), nearest first.
+     */
+    Result kNearest(double lon, double lat, int k) {
+        return search(lon, lat, k, Double.POSITIVE_INFINITY, null);
+    }
+
+    /**
+     * @return every vertex within radius miles of (lon, lat), nearest first.
+     */
+    Result withinRadius(double lon, double lat, double radius) {
+        return search(lon, lat, Integer.MAX_VALUE, radius, null);
+    }
+
+    /**
+     * Ring search for at most k vertices within radius of the query point. Candidates are
+     * kept in a max-heap ordered by (distance, OSM id) so the worst one can be replaced.
+     * Vertices accept rejects are skipped; a null accept takes every vertex.
+     */
+    private Result search(double lon, double lat, int k, double radius, IntPredicate accept) {
+        int[] heapV = new int[Math.max(1, Math.min(k, 64))];
+        double[] heapD = new double[heapV.length];
+        int size = 0;
+        int examined = 0;
+        double cosQuery = Math.cos(Math.toRadians(lat));
+        int row0 = row(lat);
+        int col0 = col(lon);
+
+        for (int ring = 0; k > 0; ring++) {
+            boolean scanned = false;
+            for (int r = row0 - ring; r <= row0 + ring; r++) {
+                if (r < 0 || r >= rows) {
+                    continue;
+                }
+                boolean edgeRow = r == row0 - ring || r == row0 + ring;
+                int step = edgeRow ? 1 : 2 * ring;
+                for (int c = col0 - ring; c <= col0 + ring; c += step) {
+                    if (c < 0 || c >= cols) {
+                        continue;
+                    }
+                    double threshold = size < k ? radius : heapD[0];
+                    if (lowerBound(r, c, lon, lat, cosQuery) > threshold + BOUND_SLACK) {
+                        continue;
+                    }
+                    scanned = true;
+                    int cell = r * cols + c;
+                    for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+                        int v = cellVertices[i];
+                        if (accept != null && !accept.test(v)) {
+                            continue;
+                        }
+                        double d = GraphDB.distance(graph.lon(v), graph.lat(v), lon, lat);
+                        examined++;
+                        if (d > radius) {
+                            continue;
+                        }
+                        if (size < k) {
+                            if (size == heapV.length) {
+                                heapV = Arrays.copyOf(heapV, size * 2);
+                                heapD = Arrays.copyOf(heapD, size * 2);
+                            }
+                            heapV[size] = v;
+                            heapD[size] = d;
+                            siftUp(heapV, heapD, size);
+                            size++;
+                        } else if (worse(heapD[0], heapV[0], d, v)) {
+                            heapV[0] = v;
+                            heapD[0] = d;
+                            siftDown(heapV, heapD, size);
+                        }
+                    }
+                }
+            }
+            if (!scanned) {
+                break;
+            }
+        }
+
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        final int[] hv = heapV;
+        final double[] hd = heapD;
+        Arrays.sort(order, (a, b) -> hd[a] != hd[b] ? Double.compare(hd[a], hd[b])
+                : Long.compare(graph.id(hv[a]), graph.id(hv[b])));
+        int[] vertices = new int[size];
+        double[] distances = new double[size];
+        for (int i = 0; i < size; i++) {
+            vertices[i] = hv[order[i]];
+            distances[i] = hd[order[i]];
+        }
+        return new Result(vertices, distances, examined);
+    }
+
+    /**
+     * Lower bound in miles on the distance from (lon, lat) to any vertex in cell (r, c):
+     * the haversine term for the latitude gap is exact, and the longitude term is bounded
+     * using the smallest cosine of latitude in the grid.
+     */
+    private double lowerBound(int r, int c, double lon, double lat, double cosQuery) {
+        return boxLowerBound(minLon + c * cellWidth, minLat + r * cellHeight, cellWidth,
+                cellHeight, lon, lat, cosQuery, minCosLat);
+    }
+
+    /**
+     * Lower bound in miles on the distance from (lon, lat) to any point of the box with
+     * south-west corner (lon0, lat0), given cos(lat) of the query point and the smallest
+     * cos(lat) over the box. Shared with SegmentIndex.
+     */
+    static double boxLowerBound(double lon0, double lat0, double width, double height,
+                                double lon, double lat, double cosQuery, double minCosLat) {
+        double dLat = Math.max(0, Math.max(lat0 - lat, lat - (lat0 + height)));
+        double dLon = Math.max(0, Math.max(lon0 - lon, lon - (lon0 + width)));
+        double sinLat = Math.sin(Math.toRadians(dLat) / 2.0);
+        double sinLon = Math.sin(Math.toRadians(dLon) / 2.0);
+        double a = sinLat * sinLat + Math.max(0, cosQuery) * Math.max(0, minCosLat) * sinLon * sinLon;
+        return 3963 * 2 * Math.asin(Math.min(1.0, Math.sqrt(a)));
+    }
+
+//    true if (d1, v1) orders after (d2, v2)
+    private boolean worse(double d1, int v1, double d2, int v2) {
+        return d1 > d2 || (d1 == d2 && graph.id(v1) > graph.id(v2));
+    }
+
+    private void siftUp(int[] hv, double[] hd, int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (!worse(hd[i], hv[i], hd[parent], hv[parent])) {
+                break;
+            }
+            swap(hv, hd, i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int[] hv, double[] hd, int size) {
+        int i = 0;
+        while (true) {
+            int left = 2 * i + 1;
+            int largest = i;
+            if (left < size && worse(hd[left], hv[left], hd[largest], hv[largest])) {
+                largest = left;
+            }
+            if (left + 1 < size && worse(hd[left + 1], hv[left + 1], hd[largest], hv[largest])) {
+                largest = left + 1;
+            }
+            if (largest == i) {
+                return;
+            }
+            swap(hv, hd, i, largest);
+            i = largest;
+        }
+    }
+
+    private static void swap(int[] hv, double[] hd, int i, int j) {
+        int tv = hv[i];
+        hv[i] = hv[j];
+        hv[j] = tv;
+        double td = hd[i];
+        hd[i] = hd[j];
+        hd[j] = td;
+    }
+}
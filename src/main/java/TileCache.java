@@ -0,0 +1,142 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.imageio.ImageIO;
+
+/**
+ * Bounded least-recently-used cache of decoded map tiles, keyed by tile file name such as
+ * d3_x2_y5.png, so a tile is read from disk and decoded once instead of for every raster that
+ * shows it. The cache is bounded by the bytes of decoded pixel data it holds rather than by
+ * the number of tiles, since that is what the tiles cost in memory.
+ *
+ * All methods are thread-safe. Tiles are decoded outside the lock, so a slow decode does not
+ * hold up requests for cached tiles; two threads missing the same tile at once may both
+ * decode it, and the first one stored is kept. The cached images are shared and must only be
+ * read, e.g. drawn with Graphics.drawImage.
+ */
+public class TileCache {
+    private final String root;
+    private final long maxBytes;
+    private long bytes;
+
+//    access-ordered, so iteration starts at the least recently used tile
+    private final LinkedHashMap<String, BufferedImage> tiles =
+            new LinkedHashMap<>(16, 0.75f, true);
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param root the directory holding the tile images, ending in a separator.
+     * @param maxBytes the largest total number of decoded pixel bytes to keep.
+     */
+    public TileCache(String root, long maxBytes) {
+        this.root = root;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Return a decoded tile, reading it from disk if it is not cached.
+     * @param name The file name of the tile in the root directory.
+     * @return the tile, or null if it cannot be read.
+     */
+    public BufferedImage get(String name) {
+        synchronized (this) {
+            BufferedImage tile = tiles.get(name);
+            if (tile != null) {
+                hits++;
+                return tile;
+            }
+            misses++;
+        }
+
+        BufferedImage tile;
+        try {
+            tile = ImageIO.read(new File(root + name));
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+        if (tile == null) {
+            return null;
+        }
+        return put(name, tile);
+    }
+
+//    store a decoded tile unless another thread stored it first, and return the stored one
+    private synchronized BufferedImage put(String name, BufferedImage tile) {
+        BufferedImage stored = tiles.get(name);
+        if (stored != null) {
+            return stored;
+        }
+        long size = pixelBytes(tile);
+        if (size > maxBytes) {
+            return tile;
+        }
+        tiles.put(name, tile);
+        bytes += size;
+        Iterator<BufferedImage> eldest = tiles.values().iterator();
+        while (bytes > maxBytes) {
+            bytes -= pixelBytes(eldest.next());
+            eldest.remove();
+            evictions++;
+        }
+        return tile;
+    }
+
+    /**
+     * @return the bytes of pixel data behind a decoded image.
+     */
+    static long pixelBytes(BufferedImage image) {
+        DataBuffer buffer = image.getRaster().getDataBuffer();
+        return (long) buffer.getSize() * buffer.getNumBanks()
+                * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+    }
+
+    /**
+     * Remove every tile, keeping the counters.
+     */
+    public synchronized void clear() {
+        tiles.clear();
+        bytes = 0;
+    }
+
+    public synchronized int size() {
+        return tiles.size();
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Returns the counters and occupancy as a map, for JSON encoding.
+     */
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("evictions", evictions);
+        stats.put("tiles", tiles.size());
+        stats.put("bytes", bytes);
+        stats.put("max_bytes", maxBytes);
+        return stats;
+    }
+}
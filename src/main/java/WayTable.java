@@ -0,0 +1,218 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Deduplicated table of the way attributes that edges refer to. Every distinct combination of
+ * name, highway type and max speed is stored once and identified by a small int, so the graph
+ * only needs one int per edge to know which street it belongs to. Strings are canonicalized
+ * on the way in, so a street name shared by many ways is held by a single String instance.
+ * The maxspeed tag of every entry is parsed once, when the entry is added, into the speed
+ * travel times are computed with.
+ */
+class WayTable {
+//    speed in mph assumed for each highway type when a way has no usable maxspeed tag
+    private static final Map<String, Double> DEFAULT_SPEEDS = new HashMap<>();
+    private static final double FALLBACK_SPEED = 25;
+    private static final double MPH_PER_KMH = 0.621371;
+    private static final double MPH_PER_KNOT = 1.15078;
+
+    static {
+        DEFAULT_SPEEDS.put("motorway", 65.0);
+        DEFAULT_SPEEDS.put("trunk", 55.0);
+        DEFAULT_SPEEDS.put("primary", 40.0);
+        DEFAULT_SPEEDS.put("secondary", 35.0);
+        DEFAULT_SPEEDS.put("tertiary", 30.0);
+        DEFAULT_SPEEDS.put("unclassified", 25.0);
+        DEFAULT_SPEEDS.put("residential", 25.0);
+        DEFAULT_SPEEDS.put("living_street", 10.0);
+        DEFAULT_SPEEDS.put("motorway_link", 45.0);
+        DEFAULT_SPEEDS.put("trunk_link", 40.0);
+        DEFAULT_SPEEDS.put("primary_link", 30.0);
+        DEFAULT_SPEEDS.put("secondary_link", 30.0);
+        DEFAULT_SPEEDS.put("tertiary_link", 25.0);
+    }
+
+//    attributes of every entry, indexed by way entry id
+    private final ArrayList<String> names = new ArrayList<>();
+    private final ArrayList<String> highways = new ArrayList<>();
+    private final ArrayList<String> maxSpeeds = new ArrayList<>();
+
+//    parsed speed of every entry in mph
+    private final ArrayList<Double> speeds = new ArrayList<>();
+
+//    (name, highway, maxSpeed) -> way entry id
+    private final HashMap<List<String>, Integer> entries = new HashMap<>();
+
+//    canonical instance of every string seen so far
+    private final HashMap<String, String> strings = new HashMap<>();
+
+    /**
+     * Return the id of the entry with the given attributes, adding it if it is new.
+     * Any of the attributes may be null when the way does not have the tag.
+     */
+    int add(String name, String highway, String maxSpeed) {
+        name = intern(name);
+        highway = intern(highway);
+        maxSpeed = intern(maxSpeed);
+        List<String> key = Arrays.asList(name, highway, maxSpeed);
+        Integer id = entries.get(key);
+        if (id == null) {
+            id = names.size();
+            names.add(name);
+            highways.add(highway);
+            maxSpeeds.add(maxSpeed);
+            speeds.add(parseSpeed(maxSpeed, highway));
+            entries.put(key, id);
+        }
+        return id;
+    }
+
+    /**
+     * Return the id of the entry describing the given way.
+     */
+    int add(GraphDB.Way way) {
+        return add(way.getName(), way.getHighway(), way.getMax_speed());
+    }
+
+    private String intern(String s) {
+        if (s == null) {
+            return null;
+        }
+        String canonical = strings.get(s);
+        if (canonical == null) {
+            strings.put(s, s);
+            canonical = s;
+        }
+        return canonical;
+    }
+
+    /**
+     * @return the number of distinct entries.
+     */
+    int size() {
+        return names.size();
+    }
+
+    /**
+     * @return the street name of entry id, or null if the way had no name tag.
+     */
+    String name(int id) {
+        return names.get(id);
+    }
+
+    /**
+     * @return the highway tag of entry id.
+     */
+    String highway(int id) {
+        return highways.get(id);
+    }
+
+    /**
+     * @return the raw maxspeed tag of entry id, or null if the way had none.
+     */
+    String maxSpeed(int id) {
+        return maxSpeeds.get(id);
+    }
+
+    /**
+     * @return the speed of entry id in mph: its maxspeed tag if that can be parsed, otherwise
+     * the default for its highway type.
+     */
+    double speed(int id) {
+        return speeds.get(id);
+    }
+
+    /**
+     * Parse an OSM maxspeed tag into mph. Plain numbers are km/h as in the OSM convention;
+     * "mph", "km/h" and "knots" units are understood, and of several values separated by
+     * semicolons the first is used. Anything else, such as "none", "walk" or "signals",
+     * falls back to the default for the highway type.
+     * @param maxSpeed The maxspeed tag, or null if the way has none.
+     * @param highway The highway tag of the way.
+     */
+    static double parseSpeed(String maxSpeed, String highway) {
+        Double fallback = highway == null ? null : DEFAULT_SPEEDS.get(highway);
+        double defaultSpeed = fallback == null ? FALLBACK_SPEED : fallback;
+        if (maxSpeed == null) {
+            return defaultSpeed;
+        }
+        String value = maxSpeed.split(";")[0].trim().toLowerCase();
+        double factor = MPH_PER_KMH;
+        if (value.endsWith("mph")) {
+            factor = 1;
+            value = value.substring(0, value.length() - 3);
+        } else if (value.endsWith("km/h") || value.endsWith("kmh")) {
+            value = value.substring(0, value.length() - (value.endsWith("km/h") ? 4 : 3));
+        } else if (value.endsWith("knots")) {
+            factor = MPH_PER_KNOT;
+            value = value.substring(0, value.length() - 5);
+        }
+        try {
+            double speed = Double.parseDouble(value.trim()) * factor;
+            return speed > 0 && speed < Double.POSITIVE_INFINITY ? speed : defaultSpeed;
+        } catch (NumberFormatException e) {
+            return defaultSpeed;
+        }
+    }
+
+    /**
+     * Write the entries to out in id order, each as its name, highway and max speed.
+     */
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(size());
+        for (int id = 0; id < size(); id++) {
+            writeString(out, names.get(id));
+            writeString(out, highways.get(id));
+            writeString(out, maxSpeeds.get(id));
+        }
+    }
+
+    /**
+     * Read a table written by writeTo, advancing the position of in past it. Entries get
+     * the same ids they had when written.
+     */
+    static WayTable readFrom(ByteBuffer in) {
+        WayTable table = new WayTable();
+        int size = in.getInt();
+        for (int id = 0; id < size; id++) {
+            String name = readString(in);
+            String highway = readString(in);
+            String maxSpeed = readString(in);
+            table.add(name, highway, maxSpeed);
+        }
+        return table;
+    }
+
+    /**
+     * Write s as its UTF-8 length followed by its bytes, with length -1 for null.
+     */
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Read a string written by writeString.
+     */
+    static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
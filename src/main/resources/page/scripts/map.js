@@ -29,6 +29,8 @@ $(function() {
     // psueod-lock
     var getInProgress = false;
     var route_params = {};
+    // token of this page's route session, handed out by the first /route call
+    var session;
     var map;
     var dest;
     var tx = 0, ty = 0;
@@ -111,7 +113,7 @@ $(function() {
         $.get({
             async: true,
             url: raster_server,
-            data: params,
+            data: $.extend({session: session}, params),
             success: function(data) {
                 console.log(data);
                 if (data.query_success) {
@@ -170,9 +172,10 @@ $(function() {
         $.get({
             async: true,
             url: route_server,
-            data: route_params,
+            data: $.extend({session: session}, route_params),
             success: function(data) {
                 data = JSON.parse(data);
+                session = data.session;
                 updateImg();
                 if (data.directions_success) {
                     $directionsText.html(data.directions);
@@ -407,6 +410,7 @@ $(function() {
         $.get({
             async: true,
             url: clear_route,
+            data: {session: session},
             success: function() {
                 dest.style.visibility = 'hidden';
                 $directionsText.html('No routing directions to display.');
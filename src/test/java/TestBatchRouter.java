@@ -0,0 +1,67 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+
+/** Checks that batch routing returns the same routes as routing the pairs one by one. */
+public class TestBatchRouter {
+    private static final String OSM_DB_PATH = "src/main/resources/berkeley-2018.osm.xml";
+    private static final int NUM_PAIRS = 100;
+    private static final int NUM_WORKERS = 4;
+    private static final double DELTA = 1e-9;
+    private static GraphDB graph;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graph = new GraphDB(OSM_DB_PATH);
+        initialized = true;
+    }
+
+    @Test
+    public void testSameAsSequential() {
+        Random random = new Random(20);
+        double[][] pairs = new double[NUM_PAIRS][];
+        for (int i = 0; i < NUM_PAIRS; i++) {
+            pairs[i] = new double[]{randomLon(random), randomLat(random),
+                randomLon(random), randomLat(random)};
+        }
+        ForkJoinPool pool = new ForkJoinPool(NUM_WORKERS);
+        BatchRouter.Result[] results = BatchRouter.route(graph, pairs, Router.Algorithm.ASTAR,
+                Router.Metric.DISTANCE, true, pool);
+        pool.shutdown();
+
+        assertEquals(NUM_PAIRS, results.length);
+        for (int i = 0; i < NUM_PAIRS; i++) {
+            List<Long> expected = Router.shortestPath(graph, pairs[i][0], pairs[i][1],
+                    pairs[i][2], pairs[i][3]);
+            assertEquals(expected, results[i].getPath());
+            double distance = 0;
+            for (int j = 1; j < expected.size(); j++) {
+                distance += graph.distance(expected.get(j - 1), expected.get(j));
+            }
+            assertEquals(distance, results[i].getDistance(), DELTA);
+            if (expected.size() >= 2) {
+                assertEquals(Router.routeDirections(graph, expected).size(),
+                        results[i].getDirections().size());
+            }
+        }
+    }
+
+    private double randomLon(Random random) {
+        return MapServer.ROOT_ULLON
+                + random.nextDouble() * (MapServer.ROOT_LRLON - MapServer.ROOT_ULLON);
+    }
+
+    private double randomLat(Random random) {
+        return MapServer.ROOT_LRLAT
+                + random.nextDouble() * (MapServer.ROOT_ULLAT - MapServer.ROOT_LRLAT);
+    }
+}
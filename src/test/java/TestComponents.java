@@ -0,0 +1,96 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/** Checks connected-component labels, pruning and snapping within the largest component. */
+public class TestComponents {
+    private static final String OSM_DB_PATH = "src/main/resources/berkeley-2018.osm.xml";
+    private static final int MIN_COMPONENT_SIZE = 100;
+    private static GraphDB graph;
+    private static GraphDB pruned;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graph = new GraphDB(OSM_DB_PATH);
+        pruned = new GraphDB(OSM_DB_PATH, true, MIN_COMPONENT_SIZE);
+        initialized = true;
+    }
+
+    @Test
+    public void testLabels() {
+        int[] sizes = new int[graph.componentCount()];
+        for (int v = 0; v < graph.vertexCount(); v++) {
+            sizes[graph.component(v)]++;
+            for (int e = graph.edgeStart(v); e < graph.edgeEnd(v); e++) {
+                assertEquals(graph.component(v), graph.component(graph.edgeTarget(e)));
+            }
+        }
+        for (int c = 0; c < sizes.length; c++) {
+            assertEquals(sizes[c], graph.componentSize(c));
+            assertTrue(sizes[c] <= graph.componentSize(graph.largestComponent()));
+        }
+    }
+
+    @Test
+    public void testCrossComponentRouteIsEmpty() {
+        int s = -1;
+        int t = -1;
+        for (int v = 0; v < graph.vertexCount(); v++) {
+            if (graph.component(v) == graph.largestComponent()) {
+                s = v;
+            } else {
+                t = v;
+            }
+        }
+        if (t < 0) {
+            return;
+        }
+        assertTrue(Router.stpA(graph, graph.vertexId(s), graph.vertexId(t)).isEmpty());
+    }
+
+    @Test
+    public void testUnknownVertexRouteIsEmpty() {
+        long known = graph.vertexId(0);
+        long unknown = -1;
+        assertTrue(Router.stpA(graph, unknown, known).isEmpty());
+        assertTrue(Router.stpA(graph, known, unknown).isEmpty());
+        for (Router.Algorithm algorithm : Router.Algorithm.values()) {
+            assertTrue(Router.shortestPath(graph, known, unknown, algorithm,
+                    Router.Metric.DISTANCE, null).isEmpty());
+        }
+    }
+
+    @Test
+    public void testPrune() {
+        int expected = 0;
+        for (int c = 0; c < graph.componentCount(); c++) {
+            if (graph.componentSize(c) >= MIN_COMPONENT_SIZE) {
+                expected += graph.componentSize(c);
+            }
+        }
+        assertEquals(expected, pruned.vertexCount());
+        for (int c = 0; c < pruned.componentCount(); c++) {
+            assertTrue(pruned.componentSize(c) >= MIN_COMPONENT_SIZE);
+        }
+    }
+
+    @Test
+    public void testSnapToLargestComponent() {
+        GraphDB g = new GraphDB(OSM_DB_PATH);
+        g.setSnapToLargestComponent(true);
+        for (int v = 0; v < g.vertexCount(); v += 97) {
+            int snapped = g.closestIndex(g.lonAt(v), g.latAt(v));
+            assertEquals(g.largestComponent(), g.component(snapped));
+            if (g.component(v) == g.largestComponent()) {
+                assertEquals(g.lonAt(v), g.lonAt(snapped), 0.0);
+                assertEquals(g.latAt(v), g.latAt(snapped), 0.0);
+            }
+        }
+    }
+}
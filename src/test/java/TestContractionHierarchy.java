@@ -0,0 +1,122 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/** Checks that contraction hierarchy queries find routes as short as A*. */
+public class TestContractionHierarchy {
+    private static final String OSM_DB_PATH = "src/main/resources/berkeley-2018.osm.xml";
+    private static final int NUM_QUERIES = 200;
+    private static GraphDB graph;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graph = new GraphDB(OSM_DB_PATH);
+        initialized = true;
+    }
+
+    @Test
+    public void testSameLengthAsAStar() {
+        Random r = new Random(1011);
+        for (int i = 0; i < NUM_QUERIES; i++) {
+            long start = graph.vertexId(r.nextInt(graph.vertexCount()));
+            long end = graph.vertexId(r.nextInt(graph.vertexCount()));
+            List<Long> expected = Router.stpA(graph, start, end);
+            int s = graph.vertexIndex(start);
+            int t = graph.vertexIndex(end);
+            List<Long> actual = graph.contractionHierarchy().route(graph, graph.searchState(),
+                    graph.backwardSearchState(), s, t);
+            assertEquals(expected.isEmpty(), actual.isEmpty());
+            if (expected.isEmpty()) {
+                continue;
+            }
+            assertEquals(start, (long) actual.get(0));
+            assertEquals(end, (long) actual.get(actual.size() - 1));
+            assertEquals(length(expected), length(actual), 1e-9);
+        }
+    }
+
+    @Test
+    public void testDistanceMatrix() {
+        Random r = new Random(1013);
+        int[] sources = new int[20];
+        int[] targets = new int[15];
+        for (int i = 0; i < sources.length; i++) {
+            sources[i] = r.nextInt(graph.vertexCount());
+        }
+        for (int j = 0; j < targets.length; j++) {
+            targets[j] = r.nextInt(graph.vertexCount());
+        }
+        double[][] matrix = DistanceMatrix.compute(graph, sources, targets,
+                Router.Metric.DISTANCE);
+        SearchState state = new SearchState(graph.vertexCount());
+        for (int i = 0; i < sources.length; i++) {
+            for (int j = 0; j < targets.length; j++) {
+                double expected = AStar.search(graph, state, sources[i], targets[j])
+                        ? state.dist(targets[j]) : Double.POSITIVE_INFINITY;
+                assertEquals(expected, matrix[i][j], 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void testReload() throws Exception {
+        File file = new File(OSM_DB_PATH + GraphDB.HIERARCHY_SUFFIX);
+        ContractionHierarchy built = graph.contractionHierarchy();
+        assertTrue(file.exists());
+        ContractionHierarchy loaded = ContractionHierarchy.read(file);
+        assertEquals(built.edgeCount(), loaded.edgeCount());
+        assertEquals(built.shortcutCount(), loaded.shortcutCount());
+    }
+
+    @Test
+    public void testCorruptFileRejected() throws Exception {
+        graph.contractionHierarchy();
+        File file = new File(OSM_DB_PATH + GraphDB.HIERARCHY_SUFFIX);
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        File copy = Files.createTempFile("hierarchy", ".ch").toFile();
+        try {
+            byte[] flipped = bytes.clone();
+            flipped[bytes.length / 2] ^= 1;
+            Files.write(copy.toPath(), flipped);
+            assertNull(ContractionHierarchy.read(copy));
+
+            Files.write(copy.toPath(), Arrays.copyOf(bytes, bytes.length - 100));
+            assertNull(ContractionHierarchy.read(copy));
+        } finally {
+            copy.delete();
+        }
+    }
+
+//    the length of a path, checking that consecutive vertices are adjacent
+    private static double length(List<Long> path) {
+        double total = 0;
+        for (int i = 1; i < path.size(); i++) {
+            assertTrue(isAdjacent(path.get(i - 1), path.get(i)));
+            total += GraphDB.distance(graph.lon(path.get(i - 1)), graph.lat(path.get(i - 1)),
+                    graph.lon(path.get(i)), graph.lat(path.get(i)));
+        }
+        return total;
+    }
+
+    private static boolean isAdjacent(long v, long w) {
+        for (long u : graph.adjacent(v)) {
+            if (u == w) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
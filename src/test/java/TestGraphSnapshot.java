@@ -0,0 +1,56 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/** Checks that a graph loaded from its binary snapshot matches the graph parsed from XML. */
+public class TestGraphSnapshot {
+    private static final String OSM_DB_PATH = "src/main/resources/berkeley-2018.osm.xml";
+    private static GraphDB parsed;
+    private static GraphDB loaded;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        new File(OSM_DB_PATH + GraphDB.SNAPSHOT_SUFFIX).delete();
+        parsed = new GraphDB(OSM_DB_PATH);
+        loaded = new GraphDB(OSM_DB_PATH);
+        initialized = true;
+    }
+
+    @Test
+    public void testSnapshotIsCurrent() throws Exception {
+        assertNotNull(GraphSnapshot.read(new File(OSM_DB_PATH + GraphDB.SNAPSHOT_SUFFIX),
+                new File(OSM_DB_PATH)));
+    }
+
+    @Test
+    public void testRoundTrip() {
+        assertEquals(parsed.vertexCount(), loaded.vertexCount());
+        for (int v = 0; v < parsed.vertexCount(); v++) {
+            assertEquals(parsed.vertexId(v), loaded.vertexId(v));
+            assertEquals(v, loaded.vertexIndex(parsed.vertexId(v)));
+            assertEquals(parsed.lonAt(v), loaded.lonAt(v), 0.0);
+            assertEquals(parsed.latAt(v), loaded.latAt(v), 0.0);
+            assertEquals(parsed.edgeStart(v), loaded.edgeStart(v));
+            assertEquals(parsed.edgeEnd(v), loaded.edgeEnd(v));
+            for (int e = parsed.edgeStart(v); e < parsed.edgeEnd(v); e++) {
+                assertEquals(parsed.edgeTarget(e), loaded.edgeTarget(e));
+                assertEquals(parsed.edgeWeight(e), loaded.edgeWeight(e), 0.0);
+                long w = parsed.vertexId(parsed.edgeTarget(e));
+                assertEquals(parsed.getPathName(parsed.vertexId(v), w),
+                        loaded.getPathName(parsed.vertexId(v), w));
+            }
+        }
+        assertEquals(parsed.getTotalNodes().keySet(), loaded.getTotalNodes().keySet());
+        for (GraphDB.Node place : parsed.getTotalNodes().values()) {
+            assertEquals(place.getName(), loaded.getTotalNodes().get(place.getID()).getName());
+        }
+    }
+}
@@ -0,0 +1,77 @@
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/** Checks key updates and removals of the indexed heap against a brute-force minimum. */
+public class TestIndexedMinHeap {
+    private static final int CAPACITY = 200;
+    private static final int NUM_OPERATIONS = 20000;
+
+    @Test
+    public void testUpdate() {
+        IndexedMinHeap heap = new IndexedMinHeap(CAPACITY);
+        heap.push(1, 5.0);
+        heap.push(2, 3.0);
+        heap.push(3, 4.0);
+        heap.update(2, 6.0);
+        assertEquals(3, heap.peek());
+        heap.update(1, 1.0);
+        assertEquals(1, heap.peek());
+        heap.update(4, 2.0);
+        assertEquals(4, heap.size());
+        assertEquals(1, heap.pop());
+        assertEquals(4, heap.pop());
+        assertEquals(3, heap.pop());
+        assertEquals(2, heap.pop());
+        assertTrue(heap.isEmpty());
+    }
+
+    @Test
+    public void testRemove() {
+        IndexedMinHeap heap = new IndexedMinHeap(CAPACITY);
+        heap.push(1, 1.0);
+        heap.push(2, 2.0);
+        heap.push(3, 3.0);
+        assertTrue(heap.remove(1));
+        assertFalse(heap.remove(1));
+        assertFalse(heap.contains(1));
+        assertEquals(2, heap.size());
+        assertEquals(2, heap.pop());
+        assertEquals(3, heap.pop());
+    }
+
+    @Test
+    public void testRandomOperations() {
+        IndexedMinHeap heap = new IndexedMinHeap(CAPACITY);
+        double[] keys = new double[CAPACITY];
+        boolean[] queued = new boolean[CAPACITY];
+        Random r = new Random(1011);
+        for (int i = 0; i < NUM_OPERATIONS; i++) {
+            int v = r.nextInt(CAPACITY);
+            int op = r.nextInt(3);
+            if (op == 0) {
+                keys[v] = r.nextDouble();
+                queued[v] = true;
+                heap.update(v, keys[v]);
+            } else if (op == 1) {
+                assertEquals(queued[v], heap.remove(v));
+                queued[v] = false;
+            } else if (!heap.isEmpty()) {
+                int min = -1;
+                for (int w = 0; w < CAPACITY; w++) {
+                    if (queued[w] && (min < 0 || keys[w] < keys[min])) {
+                        min = w;
+                    }
+                }
+                assertEquals(keys[min], heap.peekKey(), 0.0);
+                int popped = heap.pop();
+                assertEquals(keys[min], keys[popped], 0.0);
+                queued[popped] = false;
+            }
+        }
+    }
+}
@@ -0,0 +1,56 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/** Checks that an isochrone holds exactly the vertices within its budget, at their costs. */
+public class TestIsochrone {
+    private static final String OSM_DB_PATH = "src/main/resources/berkeley-2018.osm.xml";
+    private static final double BUDGET_MILES = 0.75;
+    private static final int NUM_SAMPLES = 200;
+    private static GraphDB graph;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graph = new GraphDB(OSM_DB_PATH);
+        initialized = true;
+    }
+
+    @Test
+    public void testReachableWithinBudget() {
+        Random r = new Random(1016);
+        int source = r.nextInt(graph.vertexCount());
+        Isochrone isochrone = Isochrone.compute(graph, new SearchState(graph.vertexCount()),
+                source, BUDGET_MILES, Router.Metric.DISTANCE);
+        Set<Long> reached = new HashSet<>();
+        for (int i = 0; i < isochrone.size(); i++) {
+            reached.add(isochrone.vertex(i));
+            assertTrue(isochrone.cost(i) <= BUDGET_MILES);
+            if (i > 0) {
+                assertTrue(isochrone.cost(i - 1) <= isochrone.cost(i));
+            }
+        }
+        SearchState state = new SearchState(graph.vertexCount());
+        for (int k = 0; k < NUM_SAMPLES; k++) {
+            int t = r.nextInt(graph.vertexCount());
+            boolean within = AStar.search(graph, state, source, t) && state.dist(t) <= BUDGET_MILES;
+            assertEquals(within, reached.contains(graph.vertexId(t)));
+        }
+        for (int i = 0; i < Math.min(isochrone.size(), NUM_SAMPLES); i++) {
+            int t = graph.vertexIndex(isochrone.vertex(i));
+            assertTrue(AStar.search(graph, state, source, t));
+            assertEquals(state.dist(t), isochrone.cost(i), 1e-9);
+        }
+        assertFalse(isochrone.size() > 0 && isochrone.cells(0.002).length == 0);
+    }
+}
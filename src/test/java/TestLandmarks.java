@@ -0,0 +1,76 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/** Checks that the landmark lower bound is admissible and ALT finds shortest routes. */
+public class TestLandmarks {
+    private static final String OSM_DB_PATH = "src/main/resources/berkeley-2018.osm.xml";
+    private static final int NUM_QUERIES = 200;
+    private static GraphDB graph;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graph = new GraphDB(OSM_DB_PATH);
+        initialized = true;
+    }
+
+    @Test
+    public void testSameDistanceAsAStar() {
+        Landmarks landmarks = graph.landmarks();
+        assertTrue(landmarks.size() > 0);
+        SearchState plain = new SearchState(graph.vertexCount());
+        SearchState alt = new SearchState(graph.vertexCount());
+        Random r = new Random(1012);
+        for (int i = 0; i < NUM_QUERIES; i++) {
+            int s = r.nextInt(graph.vertexCount());
+            int t = r.nextInt(graph.vertexCount());
+            boolean found = AStar.search(graph, plain, s, t);
+            assertEquals(found, AStar.search(graph, alt, s, t, Router.Metric.DISTANCE, landmarks));
+            if (!found) {
+                continue;
+            }
+            assertEquals(plain.dist(t), alt.dist(t), 1e-9);
+            assertTrue(landmarks.lowerBound(s, t) <= plain.dist(t) + 1e-9);
+        }
+    }
+
+    @Test
+    public void testLandmarksInLargestComponent() {
+        Landmarks landmarks = graph.landmarks();
+        for (int i = 0; i < landmarks.size(); i++) {
+            assertEquals(graph.largestComponent(), graph.component(landmarks.landmark(i)));
+        }
+    }
+
+    @Test
+    public void testCorruptFileRejected() throws Exception {
+        Landmarks built = graph.landmarks();
+        File file = new File(OSM_DB_PATH + GraphDB.LANDMARKS_SUFFIX);
+        assertEquals(built.size(), Landmarks.read(file).size());
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        File copy = Files.createTempFile("landmarks", ".landmarks").toFile();
+        try {
+            byte[] flipped = bytes.clone();
+            flipped[bytes.length / 2] ^= 1;
+            Files.write(copy.toPath(), flipped);
+            assertNull(Landmarks.read(copy));
+
+            Files.write(copy.toPath(), Arrays.copyOf(bytes, bytes.length - 100));
+            assertNull(Landmarks.read(copy));
+        } finally {
+            copy.delete();
+        }
+    }
+}
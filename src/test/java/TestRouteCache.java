@@ -0,0 +1,48 @@
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/** Checks the eviction order and counters of the route cache. */
+public class TestRouteCache {
+    private static final Router.Algorithm ASTAR = Router.Algorithm.ASTAR;
+    private static final Router.Metric DISTANCE = Router.Metric.DISTANCE;
+
+    private static List<Long> path(long... ids) {
+        List<Long> path = new ArrayList<>();
+        for (long id : ids) {
+            path.add(id);
+        }
+        return path;
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEviction() {
+        RouteCache cache = new RouteCache(6);
+        cache.put(1, 2, ASTAR, DISTANCE, path(1, 5, 2), new ArrayList<>());
+        cache.put(3, 4, ASTAR, DISTANCE, path(3, 6, 4), new ArrayList<>());
+        assertNotNull(cache.get(1, 2, ASTAR, DISTANCE));
+        cache.put(5, 6, ASTAR, DISTANCE, path(5, 6), new ArrayList<>());
+        assertNull(cache.get(3, 4, ASTAR, DISTANCE));
+        assertEquals(Arrays.asList(1L, 5L, 2L), cache.get(1, 2, ASTAR, DISTANCE).getPath());
+        assertNotNull(cache.get(5, 6, ASTAR, DISTANCE));
+        assertNull(cache.get(1, 2, Router.Algorithm.ALT, DISTANCE));
+        assertEquals(2, cache.size());
+        assertEquals(3, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    public void testOversizedRouteIsNotStored() {
+        RouteCache cache = new RouteCache(2);
+        assertEquals(3, cache.put(1, 2, ASTAR, DISTANCE, path(1, 5, 2), new ArrayList<>()).getPath().size());
+        assertNull(cache.get(1, 2, ASTAR, DISTANCE));
+        assertEquals(0, cache.size());
+    }
+}
@@ -0,0 +1,87 @@
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/** Checks route simplification and clipping against the raster bounds. */
+public class TestRouteGeometry {
+    private static final double DPP = 0.5;
+    private static final int SIZE = 100;
+
+    @Test
+    public void testSimplifiedStaysWithinTolerance() {
+        Random random = new Random(23);
+        int n = 1000;
+        double[] lons = new double[n];
+        double[] lats = new double[n];
+        for (int i = 1; i < n; i++) {
+            lons[i] = lons[i - 1] + random.nextDouble() * DPP;
+            lats[i] = lats[i - 1] + (random.nextDouble() - 0.5) * DPP;
+        }
+        RouteGeometry route = new RouteGeometry(lons, lats);
+        int[] points = route.simplified(0, DPP, DPP);
+        assertEquals(0, points[0]);
+        assertEquals(n - 1, points[points.length - 1]);
+        assertTrue(points.length < n);
+        assertTrue(points == route.simplified(0, DPP, DPP));
+
+        for (int k = 1; k < points.length; k++) {
+            int a = points[k - 1];
+            int b = points[k];
+            for (int i = a + 1; i < b; i++) {
+                assertTrue(distanceToSegment(lons, lats, i, a, b) / DPP <= 0.5 + 1e-9);
+            }
+        }
+        assertArrayEquals(new int[]{0, 1, 2, 3}, new RouteGeometry(new double[]{0, 1, 0, 1},
+                new double[]{0, 1, 1, 0}).simplified(0, DPP, DPP));
+    }
+
+    @Test
+    public void testRunsOutsideTheRasterAreDropped() {
+//        in, out to the east, back in, then out to the south, in pixels of the raster
+        int[] xs = {10, 50, 500, 600, 50, 20, 20};
+        int[] ys = {10, 12, 10, 20, 20, 30, 500};
+        double[] lons = new double[xs.length];
+        double[] lats = new double[ys.length];
+        for (int i = 0; i < xs.length; i++) {
+            lons[i] = xs[i] * DPP;
+            lats[i] = -ys[i] * DPP;
+        }
+        RouteGeometry route = new RouteGeometry(lons, lats);
+        List<int[][]> runs = route.visibleRuns(0, 0, 0, DPP, DPP, SIZE, SIZE, 0);
+        assertEquals(2, runs.size());
+        assertArrayEquals(new int[]{10, 50, 500}, runs.get(0)[0]);
+        assertArrayEquals(new int[]{10, 12, 10}, runs.get(0)[1]);
+        assertArrayEquals(new int[]{600, 50, 20, 20}, runs.get(1)[0]);
+        assertArrayEquals(new int[]{20, 20, 30, 500}, runs.get(1)[1]);
+        assertTrue(route.visibleRuns(0, 1000, 1000, DPP, DPP, SIZE, SIZE, 0).isEmpty());
+    }
+
+    @Test
+    public void testEncodedPolyline() {
+//        the example of the encoded polyline format documentation
+        RouteGeometry route = new RouteGeometry(new double[]{-120.2, -120.95, -126.453},
+                new double[]{38.5, 40.7, 43.252});
+        assertEquals("_p~iF~ps|U_ulLnnqC_mqNvxq`@", route.encodePolyline(route.allPoints()));
+        assertEquals("_p~iF~ps|U_c_\\fhde@", route.encodePolyline(new int[]{0, 2}));
+
+        double[] legs = route.legDistances(route.allPoints());
+        assertEquals(2, legs.length);
+        assertEquals(GraphDB.distance(-120.2, 38.5, -120.95, 40.7), legs[0], 1e-9);
+        assertEquals(route.getDistance(), legs[0] + legs[1], 1e-9);
+        assertEquals(route.getDistance(), route.legDistances(new int[]{0, 2})[0], 1e-9);
+    }
+
+    private static double distanceToSegment(double[] lons, double[] lats, int i, int a, int b) {
+        double dx = lons[b] - lons[a];
+        double dy = lats[b] - lats[a];
+        double px = lons[i] - lons[a];
+        double py = lats[i] - lats[a];
+        double t = Math.max(0, Math.min(1, (px * dx + py * dy) / (dx * dx + dy * dy)));
+        return Math.hypot(px - t * dx, py - t * dy);
+    }
+}
@@ -0,0 +1,98 @@
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/** Checks that sessions keep separate routes and expire after their time to live. */
+public class TestRouteStore {
+    private static final long TTL = 1000;
+    private static final int MAX_SESSIONS = 4;
+
+    private static RouteGeometry route(double lon) {
+        return new RouteGeometry(new double[]{lon, lon + 1}, new double[]{0, 1});
+    }
+
+    @Test
+    public void testSessionsAreSeparate() {
+        RouteStore store = new RouteStore(TTL, MAX_SESSIONS, new AtomicLong()::get);
+        RouteGeometry a = route(1);
+        RouteGeometry b = route(3);
+        String first = store.put(null, a);
+        String second = store.put("", b);
+        assertNotNull(first);
+        assertNotEquals(first, second);
+        assertSame(a, store.get(first));
+        assertSame(b, store.get(second));
+
+        RouteGeometry c = route(5);
+        assertEquals(first, store.put(first, c));
+        assertSame(c, store.get(first));
+        store.remove(first);
+        assertNull(store.get(first));
+        assertSame(b, store.get(second));
+        assertNull(store.get(null));
+        assertNull(store.get("unknown"));
+    }
+
+    @Test
+    public void testSessionLimit() {
+        RouteStore store = new RouteStore(TTL, MAX_SESSIONS, new AtomicLong()::get);
+        RouteGeometry first = route(1);
+        String kept = store.put(null, first);
+        String dropped = store.put(null, route(3));
+        for (int i = 0; i < 10 * MAX_SESSIONS; i++) {
+            store.get(kept);
+            store.put(null, route(5));
+            assertTrue(store.size() <= MAX_SESSIONS);
+        }
+        assertEquals(MAX_SESSIONS, store.size());
+        assertSame(first, store.get(kept));
+        assertNull(store.get(dropped));
+    }
+
+    @Test
+    public void testUnknownTokensAreNotHonoured() {
+        AtomicLong now = new AtomicLong();
+        RouteStore store = new RouteStore(TTL, MAX_SESSIONS, now::get);
+        String chosen = "chosen-by-client";
+        String token = store.put(chosen, route(1));
+        assertNotEquals(chosen, token);
+        assertNull(store.get(chosen));
+
+        String removed = store.put(null, route(3));
+        store.remove(removed);
+        assertNotEquals(removed, store.put(removed, route(5)));
+
+        String expired = store.put(null, route(7));
+        now.set(TTL + 1);
+        assertNotEquals(expired, store.put(expired, route(9)));
+        assertNull(store.get(expired));
+    }
+
+    @Test
+    public void testExpiry() {
+        AtomicLong now = new AtomicLong();
+        RouteStore store = new RouteStore(TTL, MAX_SESSIONS, now::get);
+        RouteGeometry a = route(1);
+        String used = store.put(null, a);
+        String idle = store.put(null, route(3));
+
+        now.set(TTL);
+        assertSame(a, store.get(used));
+        now.set(TTL + 1);
+        assertNull(store.get(idle));
+        assertSame(a, store.get(used));
+
+        store.put(null, route(7));
+        assertEquals(2, store.size());
+        now.set(3 * TTL);
+        store.evictExpired();
+        assertEquals(0, store.size());
+    }
+}
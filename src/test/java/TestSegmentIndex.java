@@ -0,0 +1,109 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/** Checks edge snapping against a scan over all segments, and routes between snapped points. */
+public class TestSegmentIndex {
+    private static final String OSM_DB_PATH = "src/main/resources/berkeley-2018.osm.xml";
+    private static final int NUM_TESTS = 200;
+    private static final double DELTA = 1e-9;
+    private static GraphDB graph;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graph = new GraphDB(OSM_DB_PATH);
+        initialized = true;
+    }
+
+    @Test
+    public void testMatchesBruteForce() {
+        Random random = new Random(18);
+        for (int i = 0; i < NUM_TESTS; i++) {
+            double lon = randomLon(random);
+            double lat = randomLat(random);
+            SegmentIndex.Snap snap = graph.closestSegment(lon, lat);
+            assertEquals(bruteForce(lon, lat), snap.distance, DELTA);
+            assertTrue(snap.fraction >= 0 && snap.fraction <= 1);
+            assertEquals(snap.to, graph.edgeTarget(snap.edge));
+            assertEquals(GraphDB.distance(snap.lon, snap.lat, lon, lat), snap.distance, DELTA);
+            assertTrue(snap.distance <= GraphDB.distance(graph.lonAt(graph.closestIndex(lon, lat)),
+                    graph.latAt(graph.closestIndex(lon, lat)), lon, lat) + DELTA);
+        }
+    }
+
+    @Test
+    public void testRouteBetweenSnappedPoints() {
+        Random random = new Random(1018);
+        SearchState state = graph.searchState();
+        for (int i = 0; i < NUM_TESTS / 10; i++) {
+            double stlon = randomLon(random);
+            double stlat = randomLat(random);
+            double destlon = randomLon(random);
+            double destlat = randomLat(random);
+            SegmentIndex.Snap start = graph.closestSegment(stlon, stlat);
+            SegmentIndex.Snap end = graph.closestSegment(destlon, destlat);
+            EdgeRoute route = Router.shortestPathOnEdges(graph, stlon, stlat, destlon, destlat,
+                    Router.Metric.DISTANCE);
+
+//            any route through the segments' end vertices is a valid upper bound
+            double[] head = {start.fraction * graph.edgeCost(start.edge, Router.Metric.DISTANCE),
+                (1 - start.fraction) * graph.edgeCost(start.edge, Router.Metric.DISTANCE)};
+            double[] tail = {end.fraction * graph.edgeCost(end.edge, Router.Metric.DISTANCE),
+                (1 - end.fraction) * graph.edgeCost(end.edge, Router.Metric.DISTANCE)};
+            int[] from = {start.from, start.to};
+            int[] to = {end.from, end.to};
+            double expected = start.edge == end.edge
+                    ? Math.abs(start.fraction - end.fraction) * graph.edgeCost(start.edge,
+                    Router.Metric.DISTANCE) : Double.POSITIVE_INFINITY;
+            for (int a = 0; a < 2; a++) {
+                for (int b = 0; b < 2; b++) {
+                    if (AStar.search(graph, state, from[a], to[b])) {
+                        expected = Math.min(expected, head[a] + state.dist(to[b]) + tail[b]);
+                    }
+                }
+            }
+            assertEquals(expected, route.getCost(), DELTA);
+            assertEquals(start.lon, route.getStartLon(), DELTA);
+            assertEquals(end.lat, route.getEndLat(), DELTA);
+        }
+    }
+
+    private double bruteForce(double lon, double lat) {
+        double cosLat = Math.cos(Math.toRadians(lat));
+        double best = Double.POSITIVE_INFINITY;
+        for (int v = 0; v < graph.vertexCount(); v++) {
+            for (int e = graph.edgeStart(v); e < graph.edgeEnd(v); e++) {
+                int w = graph.edgeTarget(e);
+                double ax = (graph.lonAt(v) - lon) * cosLat;
+                double ay = graph.latAt(v) - lat;
+                double dx = (graph.lonAt(w) - graph.lonAt(v)) * cosLat;
+                double dy = graph.latAt(w) - graph.latAt(v);
+                double length2 = dx * dx + dy * dy;
+                double f = length2 == 0 ? 0
+                        : Math.max(0, Math.min(1, -(ax * dx + ay * dy) / length2));
+                best = Math.min(best, GraphDB.distance(
+                        graph.lonAt(v) + f * (graph.lonAt(w) - graph.lonAt(v)),
+                        graph.latAt(v) + f * (graph.latAt(w) - graph.latAt(v)), lon, lat));
+            }
+        }
+        return best;
+    }
+
+    private double randomLon(Random random) {
+        return MapServer.ROOT_ULLON
+                + random.nextDouble() * (MapServer.ROOT_LRLON - MapServer.ROOT_ULLON);
+    }
+
+    private double randomLat(Random random) {
+        return MapServer.ROOT_LRLAT
+                + random.nextDouble() * (MapServer.ROOT_ULLAT - MapServer.ROOT_LRLAT);
+    }
+}
@@ -0,0 +1,101 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/** Checks that the grid index answers exactly like a linear scan over all vertices. */
+public class TestSpatialIndex {
+    private static final String OSM_DB_PATH = "src/main/resources/berkeley-2018.osm.xml";
+    private static final int NUM_TESTS = 200;
+    private static GraphDB graph;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graph = new GraphDB(OSM_DB_PATH);
+        initialized = true;
+    }
+
+    @Test
+    public void testMatchesBruteForce() {
+        Random random = new Random(61);
+        int n = graph.vertexCount();
+        for (int i = 0; i < NUM_TESTS; i++) {
+            double lon = MapServer.ROOT_ULLON
+                    + random.nextDouble() * (MapServer.ROOT_LRLON - MapServer.ROOT_ULLON);
+            double lat = MapServer.ROOT_LRLAT
+                    + random.nextDouble() * (MapServer.ROOT_ULLAT - MapServer.ROOT_LRLAT);
+            Integer[] expected = bruteForce(lon, lat);
+
+            assertEquals((int) expected[0], graph.closestIndex(lon, lat));
+            SpatialIndex.Result nearest = graph.kNearest(lon, lat, 10);
+            assertEquals(10, nearest.size());
+            for (int j = 0; j < 10; j++) {
+                assertEquals((int) expected[j], nearest.vertex(j));
+            }
+            assertTrue(nearest.examined() < n);
+
+            double radius = random.nextDouble() * 0.2;
+            SpatialIndex.Result within = graph.withinRadius(lon, lat, radius);
+            for (int j = 0; j < within.size(); j++) {
+                assertEquals((int) expected[j], within.vertex(j));
+            }
+            int count = within.size();
+            assertTrue(count == n || distance(expected[count], lon, lat) > radius);
+        }
+    }
+
+    @Test
+    public void testTiesGoToSmallerId() throws Exception {
+        File file = Files.createTempFile("ties", ".osm.xml").toFile();
+        try {
+            Files.write(file.toPath(), Arrays.asList(
+                    "<?xml version='1.0' encoding='UTF-8'?>",
+                    "<osm version=\"0.6\">",
+                    " <node id=\"20\" lat=\"37.87\" lon=\"-122.26\"/>",
+                    " <node id=\"30\" lat=\"37.88\" lon=\"-122.25\"/>",
+                    " <node id=\"10\" lat=\"37.87\" lon=\"-122.26\"/>",
+                    " <way id=\"1\">",
+                    "  <nd ref=\"20\"/>",
+                    "  <nd ref=\"30\"/>",
+                    "  <nd ref=\"10\"/>",
+                    "  <tag k=\"highway\" v=\"residential\"/>",
+                    " </way>",
+                    "</osm>"));
+            for (boolean hilbertOrder : new boolean[]{false, true}) {
+                GraphDB g = new GraphDB(file.getPath(), false, 1, hilbertOrder);
+                assertEquals(10, g.closest(-122.26, 37.87));
+                SpatialIndex.Result nearest = g.kNearest(-122.26, 37.87, 2);
+                assertEquals(10, g.vertexId(nearest.vertex(0)));
+                assertEquals(20, g.vertexId(nearest.vertex(1)));
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    private Integer[] bruteForce(double lon, double lat) {
+        Integer[] order = new Integer[graph.vertexCount()];
+        for (int v = 0; v < order.length; v++) {
+            order[v] = v;
+        }
+        Arrays.sort(order, (a, b) -> {
+            int c = Double.compare(distance(a, lon, lat), distance(b, lon, lat));
+            return c != 0 ? c : Long.compare(graph.vertexId(a), graph.vertexId(b));
+        });
+        return order;
+    }
+
+    private double distance(int v, double lon, double lat) {
+        return GraphDB.distance(graph.lonAt(v), graph.latAt(v), lon, lat);
+    }
+}
@@ -0,0 +1,71 @@
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/** Checks that decoded tiles are reused and evicted by pixel bytes in LRU order. */
+public class TestTileCache {
+    private static final int TILE_SIZE = 16;
+    private static final long TILE_BYTES = TILE_SIZE * TILE_SIZE * 4;
+
+//    write blank tiles with the given names to a new temporary directory and return its path
+    private static String writeTiles(String... names) throws IOException {
+        File root = Files.createTempDirectory("tiles").toFile();
+        root.deleteOnExit();
+        for (String name : names) {
+            BufferedImage tile = new BufferedImage(TILE_SIZE, TILE_SIZE,
+                    BufferedImage.TYPE_INT_ARGB);
+            File file = new File(root, name);
+            ImageIO.write(tile, "png", file);
+            file.deleteOnExit();
+        }
+        return root.getPath() + File.separator;
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEviction() throws IOException {
+        String root = writeTiles("d0_x0_y0.png", "d1_x0_y0.png", "d1_x1_y0.png");
+        BufferedImage decoded = ImageIO.read(new File(root + "d0_x0_y0.png"));
+        long tileBytes = TileCache.pixelBytes(decoded);
+        TileCache cache = new TileCache(root, 2 * tileBytes);
+
+        BufferedImage first = cache.get("d0_x0_y0.png");
+        assertNotNull(first);
+        assertSame(first, cache.get("d0_x0_y0.png"));
+        assertNotNull(cache.get("d1_x0_y0.png"));
+        assertSame(first, cache.get("d0_x0_y0.png"));
+        assertNotNull(cache.get("d1_x1_y0.png"));
+
+        assertEquals(2, cache.size());
+        assertEquals(2 * tileBytes, cache.getBytes());
+        assertSame(first, cache.get("d0_x0_y0.png"));
+        assertNotNull(cache.get("d1_x0_y0.png"));
+        assertEquals(3, cache.getHits());
+        assertEquals(4, cache.getMisses());
+        assertEquals(2, cache.getEvictions());
+    }
+
+    @Test
+    public void testMissingTile() throws IOException {
+        TileCache cache = new TileCache(writeTiles(), TILE_BYTES);
+        assertNull(cache.get("d9_x0_y0.png"));
+        assertEquals(0, cache.size());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testPixelBytes() {
+        assertEquals(TILE_BYTES, TileCache.pixelBytes(new BufferedImage(TILE_SIZE, TILE_SIZE,
+                BufferedImage.TYPE_INT_ARGB)));
+        assertEquals(TILE_SIZE * TILE_SIZE * 3, TileCache.pixelBytes(new BufferedImage(
+                TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_3BYTE_BGR)));
+    }
+}
@@ -0,0 +1,33 @@
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/** Checks how maxspeed tags are turned into speeds for travel time routing. */
+public class TestWayTable {
+    private static final double DELTA = 1e-6;
+
+    @Test
+    public void testParseSpeed() {
+        assertEquals(25, WayTable.parseSpeed("25 mph", "residential"), DELTA);
+        assertEquals(25, WayTable.parseSpeed("25mph", "primary"), DELTA);
+        assertEquals(40 * 0.621371, WayTable.parseSpeed("40", "residential"), DELTA);
+        assertEquals(50 * 0.621371, WayTable.parseSpeed("50 km/h", "residential"), DELTA);
+        assertEquals(35, WayTable.parseSpeed("35 mph;45 mph", "secondary"), DELTA);
+    }
+
+    @Test
+    public void testHighwayDefaults() {
+        assertEquals(65, WayTable.parseSpeed(null, "motorway"), DELTA);
+        assertEquals(25, WayTable.parseSpeed("none", "residential"), DELTA);
+        assertEquals(25, WayTable.parseSpeed("signals", "unknown_type"), DELTA);
+        assertEquals(25, WayTable.parseSpeed("-5", null), DELTA);
+    }
+
+    @Test
+    public void testSpeedOfEntry() {
+        WayTable table = new WayTable();
+        int id = table.add("Telegraph Avenue", "secondary", "25 mph");
+        assertEquals(25, table.speed(id), DELTA);
+        assertEquals(35, table.speed(table.add("Telegraph Avenue", "secondary", null)), DELTA);
+    }
+}